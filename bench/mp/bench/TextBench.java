@@ -0,0 +1,165 @@
+package mp.bench;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import mp.Lambda;
+import mp.file.WordNormalizer;
+import mp.util.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static java.util.stream.Collectors.toMap;
+
+/** Benchmark JMH dei metodi di elaborazione del testo: {@link
+ * mp.file.Utils#wordMap}, {@link mp.util.Utils#subwordsCount},
+ * {@link mp.Lambda#wordMapLowerCase} e le pipeline di {@link mp.TestStream}.
+ * Ogni metodo è confrontato con l'implementazione originale basata su
+ * {@link Scanner}, {@link String#substring} e {@link HashMap}, riportata qui
+ * come riferimento. I corpus sono i file {@code files/alice_it_*} e un corpus
+ * sintetico di circa 64MB generato in una directory temporanea mescolando le
+ * linee di Alice con un seme fisso. Le classi di questa directory sono
+ * compilate insieme alle classi di {@code src} da {@code bench/pom.xml}
+ * ({@code mvn -f bench/pom.xml package} crea {@code bench/target/benchmarks.jar});
+ * il metodo {@link TextBench#main} esegue tutti i benchmark con il profiler
+ * {@link GCProfiler}, che riporta il tasso di allocazione di ogni metodo
+ * ({@code gc.alloc.rate.norm}), e scrive i risultati in
+ * {@code text-bench.json}. Deve essere eseguito dalla radice del progetto. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBench {
+    /** Il corpus: un file di {@code files} o "synthetic" */
+    @Param({"alice_it_utf8.txt", "alice_it_latin1.txt", "synthetic"})
+    public String corpus;
+
+    /** Lunghezza delle sotto-stringhe per subwordsCount */
+    @Param({"4"})
+    public int len;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        charset = corpus.contains("latin1") ? "ISO-8859-1" : "UTF-8";
+        if (corpus.equals("synthetic")) {
+            path = synthetic(Paths.get("files", "alice_it_utf8.txt"), 64 << 20);
+            path.toFile().deleteOnExit();
+        } else path = Paths.get("files", corpus);
+        text = new String(Files.readAllBytes(path), Charset.forName(charset));
+        wordMap = mp.file.Utils.wordMap(path, charset);
+    }
+
+    @Benchmark
+    public Map<String,Integer> wordMapScanner() throws IOException {
+        Map<String,Integer> map = new HashMap<>();
+        try (Scanner scan = new Scanner(path, charset)){
+            scan.useDelimiter("[^\\p{IsLetter}]+");
+            while (scan.hasNext()) {
+                String w = scan.next();
+                Integer n = map.get(w);
+                map.put(w, (n != null ? n+1 : 1));
+            }
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Map<String,Integer> wordMap() throws IOException {
+        return mp.file.Utils.wordMap(path, charset);
+    }
+
+    @Benchmark
+    public Map<String,Integer> wordMapParallel() throws IOException {
+        return mp.file.Utils.wordMapParallel(path, charset);
+    }
+
+    @Benchmark
+    public Map<String,Integer> subwordsCountSubstring() {
+        Map<String, Integer> count = new HashMap<>();
+        for (int i = 0 ; i <= text.length() - len ; i++) {
+            String sub = text.substring(i, i + len);
+            if (Utils.isWord(sub)) {
+                if (count.containsKey(sub))
+                    count.put(sub, count.get(sub)+1);
+                else
+                    count.put(sub, 1);
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public Map<String,Integer> subwordsCount() { return Utils.subwordsCount(text, len); }
+
+    @Benchmark
+    public Map<String,Integer> wordMapLowerCaseMerge() {
+        Map<String,Integer> wmap = new HashMap<>();
+        wordMap.forEach((s,i) -> wmap.merge(s.toLowerCase(), i, Integer::sum));
+        return wmap;
+    }
+
+    @Benchmark
+    public Map<String,Integer> wordMapLowerCase() { return Lambda.wordMapLowerCase(wordMap); }
+
+    @Benchmark
+    public Map<String,Integer> wordMapLowerCaseOnePass() throws IOException {
+        return mp.file.Utils.wordMap(path, charset, WordNormalizer.lowerCase());
+    }
+
+    @Benchmark
+    public Map<String,Integer> streamSplitToMap() {
+        String[] ww = text.split("[^\\p{IsLetter}]+");
+        return Stream.of(ww).collect(toMap(Function.identity(), s -> 1, Integer::sum));
+    }
+
+    @Benchmark
+    public long streamDistinctLowerCase() {
+        String[] ww = text.split("[^\\p{IsLetter}]+");
+        return Stream.of(ww).map(String::toLowerCase).distinct().count();
+    }
+
+    @Benchmark
+    public long streamDistinctChars() {
+        return Arrays.stream(text.split("")).distinct().count();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TextBench.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("text-bench.json")
+                .build()).run();
+    }
+
+    /** Crea un file temporaneo di circa size byte con le linee del file dato
+     * mescolate in modo deterministico. */
+    private static Path synthetic(Path src, long size) throws IOException {
+        List<String> lines = Files.readAllLines(src);
+        Random rnd = new Random(42);
+        Path p = Files.createTempFile("synthetic", ".txt");
+        try (java.io.BufferedWriter w = Files.newBufferedWriter(p)) {
+            for (long n = 0 ; n < size ; ) {
+                String l = lines.get(rnd.nextInt(lines.size()));
+                w.write(l);
+                w.newLine();
+                n += l.length() + 1;
+            }
+        }
+        return p;
+    }
+
+    private Path path;
+    private String charset, text;
+    private Map<String,Integer> wordMap;
+}
@@ -0,0 +1,81 @@
+package mp.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import mp.file.DirLister;
+import mp.file.DiskUsage;
+import mp.file.TreeGenerator;
+import mp.file.Utils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Benchmark JMH delle visite di alberi di directory su un file system con
+ * alta latenza, simulato da {@link DirLister#withLatency}: confronta
+ * {@link Utils#totalSizeForkJoin(Path, DirLister)}, che ha tanti thread quanti
+ * processori, con {@link Utils#totalSizeVirtual(Path, DirLister, int)}, che ha
+ * un thread virtuale per directory, e con {@link DiskUsage}. L'albero è creato
+ * da {@link TreeGenerator} con un seme fisso in una directory temporanea:
+ * {@code fanOut} sub-directory per directory per {@code depth} livelli, con
+ * {@code files} file in ogni directory. La latenza
+ * per elemento è un ventesimo di quella per directory. Il metodo
+ * {@link WalkBench#main} scrive i risultati in {@code walk-bench.json}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalkBench {
+    /** Latenza per directory in microsecondi */
+    @Param({"0", "200", "1000"})
+    public long dirMicros;
+
+    @Param({"6"})
+    public int fanOut;
+
+    @Param({"3"})
+    public int depth;
+
+    @Param({"8"})
+    public int files;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = new TreeGenerator(SEED).balanced(fanOut, depth, files, 1000).generate();
+        long nanos = dirMicros*1000;
+        lister = DirLister.withLatency(DirLister.standard(), nanos, nanos/20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        TreeGenerator.delete(root);
+    }
+
+    @Benchmark
+    public long forkJoin() { return Utils.totalSizeForkJoin(root, lister); }
+
+    @Benchmark
+    public long virtual() {
+        return Utils.totalSizeVirtual(root, lister, Utils.MAX_OPEN_DIRS);
+    }
+
+    @Benchmark
+    public long diskUsage() { return DiskUsage.usage(root, lister).size; }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WalkBench.class.getSimpleName())
+                .resultFormat(ResultFormatType.JSON)
+                .result("walk-bench.json")
+                .build()).run();
+    }
+
+    private static final long SEED = 42;
+
+    private Path root;
+    private DirLister lister;
+}
@@ -7,6 +7,8 @@ import java.util.function.BiPredicate;
 import java.util.function.Function;
 import java.util.function.IntFunction;
 import java.util.function.Predicate;
+import mp.file.WordNormalizer;
+import mp.util.CountMap;
 import static java.lang.System.out;
 
 /** Una classe per fare esempi sulle espressioni lambda */
@@ -16,9 +18,12 @@ public class Lambda {
      * relativi a chiavi di wm che sono uguali se ridotte in minuscole.
      * @param wm  una mappa da stringhe a interi
      * @return una mappa che con solo chiavi minuscole ma conteggi preservati */
-    public static Map<String,Integer> wordMapLowerCase(Map<String,Integer> wm) {
-        Map<String,Integer> wmap = new HashMap<>();
-        wm.forEach((s,i) -> wmap.merge(s.toLowerCase(), i, Integer::sum));
+    public static CountMap wordMapLowerCase(Map<String,Integer> wm) {
+        CountMap wmap = new CountMap(wm.size());
+        if (wm instanceof CountMap)
+            ((CountMap)wm).forEachCount((s,i) -> wmap.add(s.toLowerCase(), i));
+        else
+            wm.forEach((s,i) -> wmap.add(s.toLowerCase(), i));
         return wmap;
     }
 
@@ -97,13 +102,22 @@ public class Lambda {
         out.println(fruits);
 
         try {
-            Map<String,Integer> wmap = mp.file.Utils.wordMap(Paths.get("files",
-                    "alice_it_utf8.txt"), "utf8");
+            Map<String,Integer> wmap = mp.file.WordMapCache.getDefault()
+                    .wordMap(Paths.get("files", "alice_it_utf8.txt"), "utf8");
             out.println("Numero chiavi: "+wmap.size());
             out.println("Numero occorrenze: "+ sum(wmap.values()));
             Map<String,Integer> wmaplc = wordMapLowerCase(wmap);
             out.println("Numero chiavi: "+wmaplc.size());
             out.println("Numero occorrenze: "+ sum(wmaplc.values()));
+            wmaplc = mp.file.Utils.wordMap(Paths.get("files", "alice_it_utf8.txt"),
+                    "utf8", WordNormalizer.lowerCase());  // In un solo passaggio
+            out.println("Numero chiavi: "+wmaplc.size());
+            wmaplc = mp.file.Utils.wordMap(Paths.get("files", "alice_it_utf8.txt"),
+                    "utf8", WordNormalizer.keepApostrophes()
+                            .andThen(WordNormalizer.dropElisions())
+                            .andThen(WordNormalizer.lowerCase())
+                            .andThen(WordNormalizer.foldAccents()));
+            out.println("Numero chiavi senza elisioni e accenti: "+wmaplc.size());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -130,5 +130,10 @@ public class TestStream {
         ws = Stream.of(ww);                 // Di nuovo lo Stream delle parole
         Map<String,Integer> counts = ws.collect(toMap(Function.identity(), s -> 1, Integer::sum));
         out.println("Alice: "+counts.get("Alice")+"  Regina: "+counts.get("Regina")+" Re: "+counts.get("Re"));
+
+        // La stessa mappa contando le parole direttamente sui byte del file:
+        // una stringa è creata solamente per ogni parola distinta
+        counts = mp.file.Utils.wordMap(p, "utf8");
+        out.println("Alice: "+counts.get("Alice")+"  Regina: "+counts.get("Regina")+" Re: "+counts.get("Re"));
     }
 }
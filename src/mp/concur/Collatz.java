@@ -0,0 +1,145 @@
+package mp.concur;
+
+import java.math.BigInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Calcola il massimo numero di passi dell'algoritmo della congettura di
+ * Collatz in un intervallo, come {@link CompIntensive#collatz(long, long)}, ma
+ * ricordando i passi già calcolati. I numeri di passi degli interi minori di un
+ * limite sono in una tabella condivisa da tutti i thread: la traiettoria di un
+ * intero si ferma appena incontra un valore già nella tabella e poi tutti i
+ * valori della traiettoria minori del limite sono aggiunti alla tabella. La
+ * tabella è riempita senza lock: ogni elemento è scritto al più con un solo
+ * valore possibile, quindi se due thread lo scrivono insieme scrivono lo
+ * stesso valore e un thread che non vede ancora la scrittura di un altro
+ * (legge 0) ricalcola solamente quei passi, come fa {@link String#hashCode()}.
+ * L'intervallo è diviso ricorsivamente con Fork-Join, quindi i thread che
+ * finiscono prima rubano lavoro agli altri invece di aspettarli. I valori
+ * delle traiettorie che non sono rappresentabili con un {@code long}, che si
+ * incontrano già sotto 10^10, sono gestiti con {@link BigInteger}. */
+public class Collatz {
+    /** Crea un motore con la tabella dei passi per gli interi minori di bound.
+     * La tabella occupa 2 byte per intero.
+     * @param bound  limite della tabella
+     * @throws IllegalArgumentException se bound non è positivo o è maggiore di
+     * {@link Collatz#MAX_BOUND} */
+    public Collatz(int bound) {
+        if (bound <= 0 || bound > MAX_BOUND)
+            throw new IllegalArgumentException("Limite non valido: "+bound);
+        this.bound = bound;
+        table = new short[bound];
+    }
+
+    /** Ritorna il numero di passi dell'algoritmo per arrivare a 1 partendo da
+     * n.
+     * @param n  un intero positivo
+     * @return il numero di passi
+     * @throws IllegalArgumentException se n non è positivo */
+    public long steps(long n) {
+        if (n <= 0) throw new IllegalArgumentException("Intero non positivo: "+n);
+        return steps(n, new long[PATH]);
+    }
+
+    /** Ritorna il massimo numero di passi per tutti gli interi nell'intervallo
+     * [a, b], calcolato in parallelo con un {@link ForkJoinPool}.
+     * @param a  inizio intervallo
+     * @param b  fine intervallo
+     * @return il massimo numero di passi
+     * @throws IllegalArgumentException se a non è positivo o a &gt; b */
+    public long maxSteps(long a, long b) {
+        if (a <= 0 || a > b)
+            throw new IllegalArgumentException("Intervallo non valido: ["+a+", "+b+"]");
+        int np = Runtime.getRuntime().availableProcessors();
+        long grain = Math.max(MIN_GRAIN, (b - a)/(64L*np) + 1);
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return pool.invoke(new Range(a, b, grain));
+        } finally { pool.shutdown(); }
+    }
+
+    /** Il massimo valore di bound */
+    public static final int MAX_BOUND = Integer.MAX_VALUE - 8;
+
+    /** Il task di un intervallo, diviso a metà finché non è più piccolo della
+     * grana */
+    @SuppressWarnings("serial")
+    private class Range extends RecursiveTask<Long> {
+        Range(long a, long b, long grain) {
+            this.a = a;
+            this.b = b;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Long compute() {
+            if (b - a < grain) {
+                long[] path = new long[PATH];
+                long max = 0;
+                for (long n = a ; n <= b ; n++) {
+                    long t = steps(n, path);
+                    if (t > max) max = t;
+                }
+                return max;
+            }
+            long m = a + (b - a)/2;
+            Range right = new Range(m + 1, b, grain);
+            right.fork();
+            long left = new Range(a, m, grain).compute();
+            return Math.max(left, right.join());
+        }
+
+        final long a, b, grain;
+    }
+
+    /** Ritorna i passi di n e aggiunge alla tabella i valori della traiettoria
+     * minori del limite. Ogni valore registrato in path è impaccato come
+     * (passi fatti finora &lt;&lt; 32 | valore). */
+    private long steps(long n, long[] path) {
+        long t = 0;
+        int k = 0;
+        while (n != 1) {
+            if (n < bound) {
+                int s = table[(int)n];
+                if (s != 0) {                    // Già calcolato
+                    t += s;
+                    break;
+                }
+                if (k < path.length) path[k++] = t << 32 | n;
+            }
+            if ((n & 1) == 0) {
+                int z = Long.numberOfTrailingZeros(n);
+                n >>>= z;
+                t += z;
+            } else if (n > MAX_ODD) {           // 3n + 1 non è un long
+                t += bigSteps(BigInteger.valueOf(n));
+                break;
+            } else {
+                n = 3*n + 1;
+                t++;
+            }
+        }
+        for (int i = 0 ; i < k ; i++) {
+            long s = t - (path[i] >>> 32);
+            if (s <= Short.MAX_VALUE) table[(int)path[i]] = (short)s;
+        }
+        return t;
+    }
+
+    private static long bigSteps(BigInteger n) {
+        long t = 0;
+        while (!n.equals(BigInteger.ONE)) {
+            n = n.testBit(0) ? n.multiply(THREE).add(BigInteger.ONE) : n.shiftRight(1);
+            t++;
+        }
+        return t;
+    }
+
+    private static final int PATH = 2048;               // Valori registrati per traiettoria
+    private static final long MIN_GRAIN = 1 << 12;
+    private static final long MAX_ODD = (Long.MAX_VALUE - 1)/3;
+    private static final BigInteger THREE = BigInteger.valueOf(3);
+
+    private final int bound;
+    private final short[] table;     // Passi di n < bound, 0 se non ancora noti
+}
@@ -1,12 +1,6 @@
 package mp.concur;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.function.BiFunction;
+import java.util.function.LongBinaryOperator;
 import static java.lang.System.out;
 
 /** Classe per testare implementazioni parallele di compiti ad alta intensità di
@@ -31,32 +25,29 @@ public class CompIntensive {
         return max;
     }
 
-    /** Implementazione parallela di {@link CompIntensive#collatz(long, long)}.
+    /** Implementazione parallela di {@link CompIntensive#collatz(long, long)}
+     * con {@link RangeReduce} e il backend di default.
      * @param a  inizio intervallo
      * @param b  fine intervallo
      * @return il massimo numero di passi */
     public static long collatzParallel(long a, long b) {
-        int np = Runtime.getRuntime().availableProcessors();
-        ExecutorService exec = Executors.newFixedThreadPool(np);
-        List<Future<Long>> tasks = new ArrayList<>();
-        long nTasks = Math.min(np, (b - a + 1));
-        long size = (b - a + 1)/nTasks;
-        long max = 0;
-        try {
-            for (int i = 0 ; i < nTasks ; i++) {
-                long ta = a + i*size;
-                long tb = (i == nTasks - 1 ? b : ta + size - 1);
-                tasks.add(exec.submit(() -> collatz(ta, tb)));
-            }
-            for (Future<Long> t : tasks) {
-                long m = t.get();
-                if (m > max) max = m;
-            }
-        } catch (InterruptedException | ExecutionException e) {
-        } finally { exec.shutdown(); }
-        return max;
+        return COLLATZ.reduce(a, b);
+    }
+
+    /** Implementazione parallela di {@link CompIntensive#collatz(long, long)}
+     * con {@link Collatz}, che ricorda i passi degli interi minori di
+     * {@link CompIntensive#COLLATZ_BOUND} e divide l'intervallo con Fork-Join.
+     * @param a  inizio intervallo
+     * @param b  fine intervallo
+     * @return il massimo numero di passi */
+    public static long collatzForkJoin(long a, long b) {
+        return new Collatz((int)Math.min(b + 1, COLLATZ_BOUND)).maxSteps(a, b);
     }
 
+    /** Limite della tabella dei passi di
+     * {@link CompIntensive#collatzForkJoin(long, long)} (64MB) */
+    public static final int COLLATZ_BOUND = 1 << 25;
+
     /** Ritorna il numero di primi nell'intervallo [a, b].
      * @param a  inizio intervallo
      * @param b  fine intervallo
@@ -73,42 +64,58 @@ public class CompIntensive {
     }
 
     /** Implementazione parallela di
-     * {@link mp.concur.CompIntensive#numPrimes(long, long)}.
+     * {@link mp.concur.CompIntensive#numPrimes(long, long)} con
+     * {@link RangeReduce} e il backend di default.
      * @param a  inizio intervallo
      * @param b  fine intervallo
      * @return il numero di primi nell'intervallo [a, b] */
     public static long numPrimesParallel(long a, long b) {
-        int np = Runtime.getRuntime().availableProcessors();
-        ExecutorService exec = Executors.newFixedThreadPool(np);
-        List<Future<Long>> tasks = new ArrayList<>();
-        long nTasks = Math.min(10*np, (b - a + 1));
-        long size = (b - a + 1)/nTasks;
-        long nPrimes = 0;
-        try {
-            for (int i = 0 ; i < nTasks ; i++) {
-                long ta = a + i*size;
-                long tb = (i == nTasks - 1 ? b : ta + size - 1);
-                tasks.add(exec.submit(() -> numPrimes(ta, tb)));
-            }
-            for (Future<Long> t : tasks) {
-                nPrimes += t.get();
-            }
-        } catch (InterruptedException | ExecutionException e) {
-        } finally { exec.shutdown(); }
-        return nPrimes;
+        return PRIMES.reduce(a, b);
     }
 
-    public static void test_comp(long a, long b, BiFunction<Long,Long,Long> cmp) {
+    /** Implementazione di {@link mp.concur.CompIntensive#numPrimes(long, long)}
+     * con il crivello segmentato parallelo {@link PrimeSieve}. Diversamente da
+     * numPrimes non conta 0 e 1 come primi.
+     * @param a  inizio intervallo
+     * @param b  fine intervallo
+     * @return il numero di primi nell'intervallo [a, b] */
+    public static long numPrimesSieve(long a, long b) {
+        return PrimeSieve.countPrimes(a, b);
+    }
+
+    public static void test_comp(long a, long b, LongBinaryOperator cmp) {
         out.println("Intervallo ["+a+", "+b+"]");
         long time = System.currentTimeMillis();
-        long r = cmp.apply(a, b);
+        long r = cmp.applyAsLong(a, b);
         out.println(r+"  time: "+(System.currentTimeMillis() - time)+"ms");
     }
 
+    /** Esegue la riduzione sull'intervallo [a, b] con ognuno dei backend di
+     * {@link RangeReduce.Backend} disponibili e stampa il risultato e il tempo.
+     * @param a  inizio intervallo
+     * @param b  fine intervallo
+     * @param r  la riduzione */
+    public static void test_comp(long a, long b, RangeReduce r) {
+        for (RangeReduce.Backend bk : RangeReduce.Backend.values()) {
+            if (!bk.available()) continue;
+            out.print(bk+"  ");
+            test_comp(a, b, r.backend(bk)::reduce);
+        }
+    }
+
     public static void main(String[] args) {
         //test_comp(1, 20_000_000, CompIntensive::collatz);
         //test_comp(1, 20_000_000, CompIntensive::collatzParallel);
+        //test_comp(1, 20_000_000, CompIntensive::collatzForkJoin);
+        //test_comp(1, 20_000_000, RangeReduce.ofRange(CompIntensive::collatz, 0, Math::max));
         //test_comp(1, 30_000_000, CompIntensive::numPrimes);
         test_comp(1, 30_000_000, CompIntensive::numPrimesParallel);
+        //test_comp(1, 30_000_000, CompIntensive::numPrimesSieve);
+        //test_comp(1, 1_000_000, RangeReduce.ofRange(CompIntensive::numPrimes, 0, Long::sum));
     }
+
+    private static final RangeReduce COLLATZ =
+            RangeReduce.ofRange(CompIntensive::collatz, 0, Math::max);
+    private static final RangeReduce PRIMES =
+            RangeReduce.ofRange(CompIntensive::numPrimes, 0, Long::sum);
 }
@@ -0,0 +1,148 @@
+package mp.concur;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Conta i primi in un intervallo [a, b] con un crivello di Eratostene
+ * segmentato, invece che con la divisione per tentativi di
+ * {@link CompIntensive#numPrimes(long, long)}. I primi fino a sqrt(max), detti
+ * primi base, sono calcolati una volta sola alla creazione del crivello e
+ * condivisi da tutti i thread. L'intervallo è diviso in segmenti che entrano
+ * nella cache L1: ogni segmento rappresenta solamente i numeri dispari, con un
+ * bit per numero, e in ogni segmento sono cancellati i multipli dei primi
+ * base. I segmenti sono crivellati in parallelo con Fork-Join e ogni task
+ * riusa lo stesso array di bit per tutti i suoi segmenti. Diversamente da
+ * {@link CompIntensive#numPrimes(long, long)}, che conta anche 0 e 1, conta
+ * solamente i primi veri. Esempio:
+ * <pre>
+ *     PrimeSieve s = new PrimeSieve(1_000_000_000_000L);
+ *     long n = s.count(999_000_000_000L, 1_000_000_000_000L);
+ * </pre> */
+public class PrimeSieve {
+    /** Crea un crivello per gli intervalli con estremi al più max.
+     * @param max  il massimo estremo degli intervalli
+     * @throws IllegalArgumentException se max è negativo o maggiore di
+     * {@link PrimeSieve#MAX} */
+    public PrimeSieve(long max) {
+        if (max < 0 || max > MAX)
+            throw new IllegalArgumentException("Massimo non valido: "+max);
+        this.max = max;
+        base = basePrimes((int)sqrt(max));
+    }
+
+    /** Ritorna il numero di primi nell'intervallo [a, b], calcolato in parallelo.
+     * @param a  inizio intervallo
+     * @param b  fine intervallo
+     * @return il numero di primi nell'intervallo [a, b], 0 se a &gt; b
+     * @throws IllegalArgumentException se b è maggiore del massimo del
+     * crivello */
+    public long count(long a, long b) {
+        if (b > max) throw new IllegalArgumentException("Fine oltre il massimo: "+b);
+        a = Math.max(a, 0);
+        if (a > b) return 0;
+        long n = (a <= 2 && 2 <= b ? 1 : 0);   // Il solo primo pari
+        long lo = Math.max(a, 3) | 1;            // Primo dispari da considerare
+        if (lo > b) return n;
+        long segs = ((b - lo)/2)/SEGMENT_BITS + 1;
+        int np = Runtime.getRuntime().availableProcessors();
+        long grain = Math.max(1, segs/(8L*np));
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return n + pool.invoke(new Segments(lo, b, 0, segs, grain));
+        } finally { pool.shutdown(); }
+    }
+
+    /** Ritorna il numero di primi nell'intervallo [a, b].
+     * @param a  inizio intervallo
+     * @param b  fine intervallo
+     * @return il numero di primi nell'intervallo [a, b], 0 se a &gt; b */
+    public static long countPrimes(long a, long b) {
+        return new PrimeSieve(Math.max(b, 0)).count(a, b);
+    }
+
+    /** Il massimo estremo degli intervalli */
+    public static final long MAX = 1L << 52;
+
+    /** Il task dei segmenti [s0, s1) dei numeri dispari di [lo, b] */
+    @SuppressWarnings("serial")
+    private class Segments extends RecursiveTask<Long> {
+        Segments(long lo, long b, long s0, long s1, long grain) {
+            this.lo = lo;
+            this.b = b;
+            this.s0 = s0;
+            this.s1 = s1;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Long compute() {
+            if (s1 - s0 <= grain) {
+                long[] bits = new long[SEGMENT_BITS/64];
+                long n = 0;
+                for (long s = s0 ; s < s1 ; s++) {
+                    long first = lo + 2*s*SEGMENT_BITS;
+                    long last = Math.min(b, first + 2*(SEGMENT_BITS - 1));
+                    n += sieve(first, last, bits);
+                }
+                return n;
+            }
+            long m = s0 + (s1 - s0)/2;
+            Segments right = new Segments(lo, b, m, s1, grain);
+            right.fork();
+            long left = new Segments(lo, b, s0, m, grain).compute();
+            return left + right.join();
+        }
+
+        final long lo, b, s0, s1, grain;
+    }
+
+    /** Ritorna il numero di primi tra i numeri dispari di [first, last], con
+     * first dispari. Il bit i di bits rappresenta first + 2i ed è impostato se
+     * il numero è composto. */
+    private long sieve(long first, long last, long[] bits) {
+        int n = (int)((last - first)/2) + 1;
+        int words = (n + 63) >>> 6;
+        Arrays.fill(bits, 0, words, 0);
+        for (int p : base) {
+            long pp = (long)p*p;
+            if (pp > last) break;
+            long j = Math.max(pp, (first + p - 1)/p*p);
+            if ((j & 1) == 0) j += p;            // Primo multiplo dispari
+            for (long i = (j - first) >>> 1 ; i < n ; i += p)
+                bits[(int)(i >>> 6)] |= 1L << i;
+        }
+        long composites = 0;
+        for (int w = 0 ; w < words ; w++) composites += Long.bitCount(bits[w]);
+        return n - composites;
+    }
+
+    /** Ritorna i primi dispari fino a r con il crivello semplice sui soli
+     * dispari: comp[i/2] è true se i è composto */
+    private static int[] basePrimes(int r) {
+        boolean[] comp = new boolean[r/2 + 1];
+        int count = 0;
+        for (int i = 3 ; i <= r ; i += 2)
+            if (!comp[i >>> 1]) {
+                count++;
+                for (long j = (long)i*i ; j <= r ; j += 2*i) comp[(int)(j >>> 1)] = true;
+            }
+        int[] primes = new int[count];
+        for (int i = 3, k = 0 ; i <= r ; i += 2)
+            if (!comp[i >>> 1]) primes[k++] = i;
+        return primes;
+    }
+
+    /** Ritorna la parte intera della radice quadrata di n */
+    private static long sqrt(long n) {
+        long r = (long)Math.sqrt((double)n);
+        while (r*r > n) r--;
+        while ((r + 1)*(r + 1) <= n) r++;
+        return r;
+    }
+
+    private static final int SEGMENT_BITS = 32*1024*8;   // 32KB, la cache L1
+
+    private final long max;
+    private final int[] base;        // I primi dispari fino a sqrt(max)
+}
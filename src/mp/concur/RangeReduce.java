@@ -0,0 +1,249 @@
+package mp.concur;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.LongStream;
+import mp.util.Utils;
+
+/** Una riduzione di un intervallo di interi [a, b]: l'intervallo è diviso in
+ * sotto-intervalli, un kernel calcola il valore di ogni sotto-intervallo e i
+ * valori sono combinati con un'operazione associativa, nell'ordine dei
+ * sotto-intervalli. Ad esempio il massimo numero di passi di Collatz
+ * ({@link CompIntensive#collatz(long, long)} come kernel e {@link Math#max}
+ * come combinatore) o il numero di primi
+ * ({@link CompIntensive#numPrimes(long, long)} e {@link Long#sum}). Il calcolo
+ * può essere eseguito da diversi {@link Backend}. Se la grana, cioè il numero
+ * di elementi per sotto-intervallo, non è impostata, è scelta misurando il
+ * tempo del kernel sui primi elementi (i cui valori non sono sprecati) così
+ * che ogni sotto-intervallo richieda circa un millisecondo, ma che ci siano
+ * almeno quattro sotto-intervalli per processore. Un'eccezione lanciata dal
+ * kernel interrompe il calcolo dei sotto-intervalli non ancora iniziati ed è
+ * rilanciata al chiamante. Allo stesso modo, con ogni backend parallelo,
+ * l'interruzione del thread chiamante ferma i sotto-intervalli non ancora
+ * iniziati e il calcolo termina con una {@link CancellationException}.
+ * Esempio:
+ * <pre>
+ *     long max = RangeReduce.ofRange(CompIntensive::collatz, 0, Math::max)
+ *             .backend(RangeReduce.Backend.VIRTUAL).reduce(1, 20_000_000);
+ * </pre> */
+public class RangeReduce {
+    /** Come sono calcolati i sotto-intervalli */
+    public enum Backend {
+        /** Un solo sotto-intervallo, l'intero intervallo, calcolato dal
+         * thread chiamante */
+        SEQUENTIAL,
+        /** Divisione ricorsiva a metà in un {@link ForkJoinPool} */
+        FORK_JOIN,
+        /** Un {@link LongStream} parallelo dei sotto-intervalli */
+        PARALLEL_STREAM,
+        /** Un thread virtuale per sotto-intervallo, disponibile solamente con
+         * Java 21 o successivo */
+        VIRTUAL;
+
+        /** @return true se il backend può essere usato da questa JVM */
+        public boolean available() { return this != VIRTUAL || Utils.virtualThreads(); }
+    }
+
+    /** Crea una riduzione con un kernel che calcola il valore di un
+     * sotto-intervallo.
+     * @param kernel  ritorna il valore del sotto-intervallo [a, b]
+     * @param identity  l'elemento neutro del combinatore, il risultato di un
+     *                  intervallo vuoto
+     * @param combiner  l'operazione associativa che combina i valori
+     * @return la riduzione, con backend {@link Backend#FORK_JOIN} e grana
+     * adattiva */
+    public static RangeReduce ofRange(LongBinaryOperator kernel, long identity,
+                                      LongBinaryOperator combiner) {
+        return new RangeReduce(kernel, identity, combiner);
+    }
+
+    /** Crea una riduzione con un kernel che calcola il valore di un elemento.
+     * @param f  ritorna il valore di un elemento
+     * @param identity  l'elemento neutro del combinatore, il risultato di un
+     *                  intervallo vuoto
+     * @param combiner  l'operazione associativa che combina i valori
+     * @return la riduzione, con backend {@link Backend#FORK_JOIN} e grana
+     * adattiva */
+    public static RangeReduce ofElements(LongUnaryOperator f, long identity,
+                                         LongBinaryOperator combiner) {
+        return new RangeReduce((a, b) -> {
+            long r = identity;
+            for (long i = a ; i <= b ; i++)
+                r = combiner.applyAsLong(r, f.applyAsLong(i));
+            return r;
+        }, identity, combiner);
+    }
+
+    /** Imposta il backend.
+     * @param backend  il backend
+     * @return questa riduzione */
+    public RangeReduce backend(Backend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    /** Imposta la grana, cioè il numero di elementi per sotto-intervallo.
+     * @param grain  la grana, o 0 per la grana adattiva
+     * @return questa riduzione
+     * @throws IllegalArgumentException se grain è negativo */
+    public RangeReduce grain(long grain) {
+        if (grain < 0) throw new IllegalArgumentException("Grana negativa: "+grain);
+        this.grain = grain;
+        return this;
+    }
+
+    /** @return il backend */
+    public Backend backend() { return backend; }
+
+    /** Ritorna la riduzione dell'intervallo [a, b].
+     * @param a  inizio intervallo
+     * @param b  fine intervallo
+     * @return il valore dell'intervallo, l'elemento neutro se a &gt; b
+     * @throws IllegalArgumentException se l'intervallo ha più di
+     * {@link Long#MAX_VALUE} elementi
+     * @throws CancellationException se il thread è interrotto durante il
+     * calcolo (lo stato di interruzione è ripristinato)
+     * @throws UnsupportedOperationException se il backend non è disponibile
+     * (vedi {@link Backend#available()})
+     * @throws RuntimeException (o Error) l'eccezione lanciata dal kernel */
+    public long reduce(long a, long b) {
+        if (a > b) return identity;
+        if (b - a < 0 || b - a == Long.MAX_VALUE)
+            throw new IllegalArgumentException("Intervallo troppo grande: ["+a+", "+b+"]");
+        if (backend == Backend.SEQUENTIAL) return kernel.applyAsLong(a, b);
+        long acc = identity, g = grain;
+        if (g == 0) {              // Misura il kernel su 1, 2, 4,... elementi
+            long n = 1, done = 0, start = System.nanoTime();
+            while (System.nanoTime() - start < PROBE_NANOS) {
+                long hi = b - a < n ? b : a + n - 1;
+                acc = combiner.applyAsLong(acc, kernel.applyAsLong(a, hi));
+                done += hi - a + 1;
+                if (hi == b) return acc;
+                a = hi + 1;
+                n *= 2;
+            }
+            double nanos = (double)(System.nanoTime() - start)/done;
+            int np = Runtime.getRuntime().availableProcessors();
+            g = Math.max(1, Math.min((long)(TARGET_NANOS/nanos), (b - a)/(4L*np) + 1));
+        }
+        return combiner.applyAsLong(acc, new Run(g).reduce(a, b));
+    }
+
+    /** Un calcolo con una grana, che ricorda la prima eccezione di un
+     * sotto-intervallo o l'interruzione del chiamante */
+    private class Run {
+        Run(long grain) { this.grain = grain; }
+
+        long reduce(long a, long b) {
+            try {
+                switch (backend) {
+                    case FORK_JOIN:
+                        ForkJoinPool pool = new ForkJoinPool();
+                        try {
+                            return pool.submit(new Split(a, b)).get();
+                        } finally { pool.shutdown(); }
+                    case PARALLEL_STREAM:
+                        return LongStream.range(0, (b - a)/grain + 1).parallel()
+                                .map(i -> chunk(a + i*grain, b)).reduce(identity, combiner);
+                    default:
+                        return virtual(a, b);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw cancel();
+            } catch (ExecutionException | RuntimeException | Error ex) {
+                Throwable c = failure;           // L'eccezione originale del kernel,
+                if (c == null)                   // non quella ricreata da Fork-Join
+                    c = ex instanceof ExecutionException ? ex.getCause() : ex;
+                if (c instanceof RuntimeException) throw (RuntimeException)c;
+                if (c instanceof Error) throw (Error)c;
+                throw new RuntimeException(c);
+            }
+        }
+
+        long virtual(long a, long b) throws InterruptedException, ExecutionException {
+            List<Future<Long>> tasks = new ArrayList<>();
+            ExecutorService exec = Utils.newVirtualThreadPerTaskExecutor();
+            try {
+                for (long lo = a ; ; lo += grain) {
+                    long start = lo;
+                    tasks.add(exec.submit(() -> chunk(start, b)));
+                    if (b - lo < grain) break;
+                }
+                long r = identity;
+                for (Future<Long> t : tasks)
+                    r = combiner.applyAsLong(r, t.get());
+                return r;
+            } catch (InterruptedException ex) {
+                cancel();
+                exec.shutdownNow();              // Non aspetta i sotto-intervalli
+                throw ex;
+            } finally { Utils.close(exec); }
+        }
+
+        /** Ferma i sotto-intervalli non ancora iniziati e ritorna l'eccezione
+         * da lanciare al chiamante interrotto */
+        CancellationException cancel() {
+            CancellationException c = new CancellationException("Calcolo interrotto");
+            if (failure == null) failure = c;
+            return c;
+        }
+
+        /** Ritorna il valore del sotto-intervallo che inizia in a e termina
+         * dopo grain elementi o in b */
+        long chunk(long a, long b) {
+            if (failure != null) return identity;     // Il risultato sarà scartato
+            if (caller.isInterrupted()) throw cancel();
+            try {
+                return kernel.applyAsLong(a, b - a < grain ? b : a + grain - 1);
+            } catch (RuntimeException | Error ex) {
+                if (failure == null) failure = ex;
+                throw ex;
+            }
+        }
+
+        /** Il task Fork-Join di un intervallo, diviso a metà finché non è più
+         * piccolo della grana */
+        @SuppressWarnings("serial")
+        class Split extends RecursiveTask<Long> {
+            Split(long a, long b) {
+                this.a = a;
+                this.b = b;
+            }
+
+            @Override
+            protected Long compute() {
+                if (b - a < grain) return chunk(a, b);
+                long m = a + (b - a)/2;
+                Split right = new Split(m + 1, b);
+                right.fork();
+                long left = new Split(a, m).compute();
+                return combiner.applyAsLong(left, right.join());
+            }
+
+            final long a, b;
+        }
+
+        final long grain;
+        final Thread caller = Thread.currentThread();
+        volatile Throwable failure = null;      // La prima eccezione del kernel
+    }
+
+    private RangeReduce(LongBinaryOperator kernel, long identity,
+                        LongBinaryOperator combiner) {
+        this.kernel = kernel;
+        this.identity = identity;
+        this.combiner = combiner;
+    }
+
+    private static final long PROBE_NANOS = 200_000;      // Durata della misura
+    private static final double TARGET_NANOS = 1e6;       // Durata di un sotto-intervallo
+
+    private final LongBinaryOperator kernel, combiner;
+    private final long identity;
+    private Backend backend = Backend.FORK_JOIN;
+    private long grain = 0;                                // 0: adattiva
+}
@@ -0,0 +1,314 @@
+package mp.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import mp.util.CountMap;
+
+/** Un oggetto {@link ByteTokenizer} conta le parole di un testo lavorando
+ * direttamente sui byte, senza decodificare il testo in caratteri. Le parole
+ * sono le stesse di {@link mp.file.Utils#wordMap(java.nio.file.Path, String)},
+ * cioè sequenze massimali di lettere secondo
+ * {@link Character#isLetter(int)}. Sono supportati solamente i charset
+ * ISO-8859-1, UTF-8 e US-ASCII (vedi {@link ByteTokenizer#supports(Charset)}):
+ * per ISO-8859-1 ogni byte è un carattere, per UTF-8 le sequenze multi-byte
+ * sono decodificate al volo in un code point e le sequenze malformate sono
+ * trattate come non-lettere, proprio come fa il decoder standard che le
+ * sostituisce con U+FFFD. Le parole sono contate in una tabella hash i cui
+ * elementi sono individuati dai byte della parola: una {@link String} è creata
+ * solamente la prima volta che una parola è incontrata. Allo stesso modo un
+ * eventuale {@link WordNormalizer} è applicato una sola volta per ogni forma
+ * distinta, e le forme che hanno la stessa normalizzazione condividono lo
+ * stesso contatore. Un oggetto {@link ByteTokenizer} non è thread-safe. */
+public class ByteTokenizer {
+    /** Ritorna true se il charset è supportato da {@link ByteTokenizer}.
+     * @param cs  un charset
+     * @return true se il charset è ISO-8859-1, UTF-8 o US-ASCII */
+    public static boolean supports(Charset cs) {
+        return cs.equals(StandardCharsets.ISO_8859_1) ||
+                cs.equals(StandardCharsets.UTF_8) ||
+                cs.equals(StandardCharsets.US_ASCII);
+    }
+
+    /** Crea un tokenizzatore per il charset dato.
+     * @param cs  un charset supportato
+     * @throws IllegalArgumentException se il charset non è supportato */
+    public ByteTokenizer(Charset cs) { this(cs, null, null); }
+
+    /** Crea un tokenizzatore per il charset dato che conta le parole
+     * normalizzate dagli stadi dati.
+     * @param cs  un charset supportato
+     * @param norm  gli stadi di normalizzazione o null
+     * @throws IllegalArgumentException se il charset non è supportato */
+    public ByteTokenizer(Charset cs, WordNormalizer norm) { this(cs, norm, null); }
+
+    /** Crea un tokenizzatore per il charset dato che, oltre a contare le
+     * parole, esegue l'azione data su ogni occorrenza di parola, nell'ordine in
+     * cui appaiono. La stringa passata all'azione è quella mantenuta nella
+     * tabella delle parole, quindi per le parole già incontrate non è creata
+     * alcuna nuova stringa. Se c'è una normalizzazione, l'azione riceve le
+     * parole normalizzate e non è eseguita per quelle scartate.
+     * @param cs  un charset supportato
+     * @param norm  gli stadi di normalizzazione o null
+     * @param action  l'azione da eseguire su ogni parola o null
+     * @throws IllegalArgumentException se il charset non è supportato */
+    public ByteTokenizer(Charset cs, WordNormalizer norm, Consumer<String> action) {
+        if (!supports(cs))
+            throw new IllegalArgumentException("Charset non supportato: "+cs);
+        this.cs = cs;
+        this.norm = norm;
+        this.action = action;
+        apos = norm != null && norm.apostrophes();
+        normIds = norm != null ? new HashMap<>() : null;
+        utf8 = cs.equals(StandardCharsets.UTF_8);
+        letter = cs.equals(StandardCharsets.ISO_8859_1) ? LATIN1 : ASCII;
+    }
+
+    /** Conta le parole di tutti i byte letti dal canale, fino alla fine del
+     * flusso.
+     * @param ch  un canale
+     * @throws IOException se si verifica un errore leggendo dal canale */
+    public void count(ReadableByteChannel ch) throws IOException {
+        if (buffer == null) buffer = ByteBuffer.allocate(BUF_SIZE);
+        ByteBuffer buf = buffer.clear();   // Riusato per tanti file piccoli
+        int n = 0;                               // Byte non ancora consumati
+        while (true) {
+            int r = ch.read(buf);
+            boolean eof = r < 0;
+            n = buf.position();
+            int c = scan(buf.array(), 0, n, eof);
+            if (eof) break;
+            if (c == 0 && n == buf.capacity())   // Una parola più lunga del
+                buffer = buf = ByteBuffer.wrap(Arrays.copyOf(buf.array(), 2*n))
+                        .position(n);
+            else {                               // buffer, altrimenti sposta
+                System.arraycopy(buf.array(), c, buf.array(), 0, n - c); // i byte
+                buf.position(n - c);                                 // rimasti
+            }
+        }
+    }
+
+    /** Conta le parole dei byte del buffer, dalla posizione al limite. Il
+     * buffer può anche essere un {@link java.nio.MappedByteBuffer}; la sua
+     * posizione non è modificata. I byte sono considerati un testo completo,
+     * cioè una parola o una sequenza UTF-8 incompleta alla fine non continua
+     * in chiamate successive.
+     * @param buf  un buffer */
+    public void count(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            int off = buf.arrayOffset();
+            scan(buf.array(), off + buf.position(), off + buf.limit(), true);
+            return;
+        }
+        byte[] b = new byte[BUF_SIZE];
+        int n = 0, pos = buf.position(), lim = buf.limit();
+        while (true) {                    // Copia il buffer a blocchi in b
+            int r = Math.min(b.length - n, lim - pos);
+            buf.get(pos, b, n, r);
+            pos += r;
+            n += r;
+            boolean eof = pos == lim;
+            int c = scan(b, 0, n, eof);
+            if (eof) break;
+            if (c == 0 && n == b.length) b = Arrays.copyOf(b, 2*n);
+            else {
+                System.arraycopy(b, c, b, 0, n - c);
+                n -= c;
+            }
+        }
+    }
+
+    /** @return la capacità del buffer di lettura dai canali, 0 se non è
+     * ancora stato creato (per i test) */
+    int bufferCapacity() { return buffer != null ? buffer.capacity() : 0; }
+
+    /** @return il numero di parole distinte (normalizzate) contate */
+    public int size() { return nWords; }
+
+    /** Esegue l'azione data su ogni parola distinta e il suo conteggio.
+     * @param action  l'azione da eseguire */
+    public void forEachCount(ObjIntConsumer<String> action) {
+        for (int i = 0 ; i < nWords ; i++)
+            action.accept(words[i], counts[i]);
+    }
+
+    /** @return una mappa che ad ogni parola distinta associa il suo conteggio */
+    public CountMap toCountMap() {
+        CountMap map = new CountMap(nWords);
+        forEachCount(map::add);
+        return map;
+    }
+
+    /** Conta le parole in b[from, to). Se eof è false, si ferma all'inizio
+     * dell'ultima parola o sequenza UTF-8 che potrebbe continuare oltre to.
+     * @return la posizione fino alla quale i byte sono stati consumati */
+    private int scan(byte[] b, int from, int to, boolean eof) {
+        int i = from;
+        while (i < to) {
+            int start = i, h = 0;     // Possibile inizio di una parola
+            while (i < to) {          // Estende la parola finché ci sono lettere
+                int c = b[i] & 0xFF, len = 1;
+                if (c < 0x80 || !utf8) {
+                    if (!letter[c]) break;
+                } else {
+                    len = utf8Letter(b, i, to);
+                    if (len == 0) {   // Sequenza incompleta
+                        if (eof) break;
+                        return start;
+                    }
+                    if (len < 0) break;
+                }
+                for (int k = 0 ; k < len ; k++)
+                    h = 31*h + b[i + k];
+                i += len;
+            }
+            if (i == to && !eof) return start;  // La parola potrebbe continuare
+            if (i > start) {
+                int a = apos ? apostrophe(b, i, to) : 0;
+                if (apos && a == 0 && !eof) return start;   // Apostrofo incompleto
+                if (a > 0) {
+                    for (int k = 0 ; k < a ; k++)
+                        h = 31*h + b[i + k];
+                    i += a;
+                }
+                add(b, start, i, h);
+                continue;
+            }
+            i += 1;                   // Salta il byte che non è una lettera
+        }
+        return i;
+    }
+
+    /** Ritorna la lunghezza in byte dell'apostrofo (' o, in UTF-8, ’) che
+     * inizia in b[i], -1 se non c'è un apostrofo o 0 se i byte fino a to non
+     * bastano per deciderlo. */
+    private int apostrophe(byte[] b, int i, int to) {
+        if (i >= to) return 0;
+        if (b[i] == '\'') return 1;
+        if (!utf8 || b[i] != (byte)0xE2) return -1;
+        if (i + 2 >= to) return 0;
+        return b[i + 1] == (byte)0x80 && b[i + 2] == (byte)0x99 ? 3 : -1;
+    }
+
+    /** Decodifica la sequenza UTF-8 che inizia in b[i] con un byte >= 0x80.
+     * @return la lunghezza della sequenza se codifica una lettera, -1 se non è
+     * una lettera o è malformata, 0 se è incompleta prima di to */
+    private static int utf8Letter(byte[] b, int i, int to) {
+        int c = b[i] & 0xFF, len, cp, min;
+        if (c >= 0xC2 && c <= 0xDF) { len = 2; cp = c & 0x1F; min = 0x80; }
+        else if (c >= 0xE0 && c <= 0xEF) { len = 3; cp = c & 0x0F; min = 0x800; }
+        else if (c >= 0xF0 && c <= 0xF4) { len = 4; cp = c & 0x07; min = 0x10000; }
+        else return -1;
+        for (int k = 1 ; k < len ; k++) {
+            if (i + k >= to) return 0;
+            int d = b[i + k] & 0xFF;
+            if ((d & 0xC0) != 0x80) return -1;
+            cp = (cp << 6) | (d & 0x3F);
+            if (k == 1 && len > 2 && (cp << 6*(len - 2)) < min)
+                return -1;            // Codifica non minima
+        }
+        if (cp < min || cp > Character.MAX_CODE_POINT ||
+                (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE))
+            return -1;
+        return Character.isLetter(cp) ? len : -1;
+    }
+
+    /** Incrementa il conteggio della parola b[s, e) con hash h. */
+    private void add(byte[] b, int s, int e, int h) {
+        int mask = raw.length - 1;
+        int i = slot(h, mask);
+        while (raw[i] != null) {
+            if (hashes[i] == h && Arrays.equals(raw[i], 0, raw[i].length, b, s, e)) {
+                count(ids[i]);
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        raw[i] = Arrays.copyOfRange(b, s, e);     // Nuova forma
+        hashes[i] = h;
+        ids[i] = wordId(new String(b, s, e - s, cs));
+        count(ids[i]);
+        if (++size > raw.length/2) resize();
+    }
+
+    /** Ritorna l'indice del contatore della parola w, appena incontrata per
+     * la prima volta, dopo averla normalizzata, o -1 se è scartata. */
+    private int wordId(String w) {
+        if (norm != null) {
+            if (apos && w.endsWith("\u2019"))
+                w = w.substring(0, w.length() - 1) + "'";
+            w = norm.normalize(w);
+            if (w == null) return -1;
+            Integer id = normIds.get(w);
+            if (id != null) return id;
+            normIds.put(w, nWords);
+        }
+        if (nWords == words.length) {
+            words = Arrays.copyOf(words, 2*nWords);
+            counts = Arrays.copyOf(counts, 2*nWords);
+        }
+        words[nWords] = w;
+        return nWords++;
+    }
+
+    private void count(int id) {
+        if (id < 0) return;
+        counts[id]++;
+        if (action != null) action.accept(words[id]);
+    }
+
+    private void resize() {
+        byte[][] oldRaw = raw;
+        int[] oldHashes = hashes, oldIds = ids;
+        int cap = 2*oldRaw.length, mask = cap - 1;
+        raw = new byte[cap][];
+        hashes = new int[cap];
+        ids = new int[cap];
+        for (int j = 0 ; j < oldRaw.length ; j++) {
+            if (oldRaw[j] == null) continue;
+            int h = oldHashes[j], i = slot(h, mask);
+            while (raw[i] != null) i = (i + 1) & mask;
+            raw[i] = oldRaw[j];
+            hashes[i] = h;
+            ids[i] = oldIds[j];
+        }
+    }
+
+    private static int slot(int h, int mask) {
+        h *= 0x9E3779B9;                    // Mescola i bit bassi con quelli alti
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static boolean[] letters(int n) {
+        boolean[] t = new boolean[256];
+        for (int c = 0 ; c < n ; c++) t[c] = Character.isLetter(c);
+        return t;
+    }
+
+    private static final int BUF_SIZE = 1 << 16;
+    private static final boolean[] LATIN1 = letters(256), ASCII = letters(128);
+
+    private final Charset cs;
+    private final WordNormalizer norm;        // Normalizzazione o null
+    private final Consumer<String> action;    // Azione per ogni parola o null
+    private final boolean utf8, apos;
+    private final boolean[] letter;   // Lettere tra i byte (per UTF-8 < 0x80)
+    private ByteBuffer buffer;        // Buffer di lettura dai canali
+
+    private byte[][] raw = new byte[64][];  // Byte delle forme, null se libero
+    private int[] hashes = new int[64];     // Hash dei byte delle forme
+    private int[] ids = new int[64];        // Indice del contatore o -1
+    private int size = 0;                   // Numero di forme distinte
+
+    private String[] words = new String[64];  // Parole (normalizzate)
+    private int[] counts = new int[64];       // Conteggi delle parole
+    private int nWords = 0;                   // Numero di parole distinte
+    private final Map<String,Integer> normIds;  // Parola normalizzata -> indice
+}
@@ -0,0 +1,133 @@
+package mp.file;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import mp.util.CountMap;
+
+/** Conta le parole di tutti i file di testo di un albero di directory. La
+ * visita dell'albero è parallela, con {@link mp.file.ParallelWalk}: un task
+ * per ogni directory che sottomette i task delle sub-directory e tokenizza i
+ * file che contiene. Ogni thread del pool conta in strutture locali (un
+ * {@link mp.file.ByteTokenizer} per charset), che sono fuse solamente alla
+ * fine. Le directory sono lette con {@link mp.file.DirLister}. I file da
+ * contare sono selezionati con pattern glob (vedi
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}) applicati al
+ * percorso relativo alla radice; anche il charset può dipendere dal file. I link
+ * simbolici non sono seguiti e i file che non si possono leggere sono ignorati.
+ * Esempio:
+ * <pre>
+ *     CountMap words = new CorpusCounter("UTF-8")
+ *             .include("**.txt").exclude("**&#47;.git&#47;**")
+ *             .charset("old/**", "ISO-8859-1")
+ *             .count(Paths.get("corpus"));
+ * </pre> */
+public class CorpusCounter {
+    /** Crea un contatore che decodifica i file con il charset dato, salvo
+     * quelli che corrispondono a un pattern specificato con
+     * {@link CorpusCounter#charset(String, String)}.
+     * @param defaultCharset  il charset di default */
+    public CorpusCounter(String defaultCharset) {
+        this.defaultCharset = Charset.forName(defaultCharset);
+    }
+
+    /** Aggiunge un pattern glob per i file da contare. Se non è specificato
+     * alcun pattern, sono contati tutti i file regolari.
+     * @param glob  un pattern glob relativo alla radice
+     * @return questo contatore */
+    public CorpusCounter include(String glob) {
+        includes.add(matcher(glob));
+        return this;
+    }
+
+    /** Aggiunge un pattern glob per i file e le directory da escludere. Una
+     * directory esclusa non è visitata.
+     * @param glob  un pattern glob relativo alla radice
+     * @return questo contatore */
+    public CorpusCounter exclude(String glob) {
+        excludes.add(matcher(glob));
+        return this;
+    }
+
+    /** Specifica il charset dei file che corrispondono al pattern dato. Se un
+     * file corrisponde a più pattern, vale il primo specificato.
+     * @param glob  un pattern glob relativo alla radice
+     * @param charset  il charset per quei file
+     * @return questo contatore */
+    public CorpusCounter charset(String glob, String charset) {
+        charsets.put(matcher(glob), Charset.forName(charset));
+        return this;
+    }
+
+    /** Specifica la normalizzazione delle parole.
+     * @param norm  gli stadi di normalizzazione o null
+     * @return questo contatore */
+    public CorpusCounter normalizer(WordNormalizer norm) {
+        this.norm = norm;
+        return this;
+    }
+
+    /** Ritorna una mappa che ad ogni parola dei file selezionati nell'albero
+     * di radice data associa il numero totale di occorrenze.
+     * @param root  la directory radice
+     * @return  una mappa che conta le occorenze delle parole */
+    public CountMap count(Path root) {
+        Collection<Worker> workers = ParallelWalk.walk(root, DirLister.standard(),
+                Worker::new, (w, e, a) -> {
+                    Path rel = root.relativize(e);
+                    if (matches(excludes, rel)) return false;
+                    if (a.isRegularFile() && (includes.isEmpty() || matches(includes, rel)))
+                        w.count(e, charsetOf(rel));
+                    return true;
+                });
+        CountMap map = new CountMap();
+        for (Worker w : workers) {
+            for (ByteTokenizer t : w.tokenizers.values())
+                t.forEachCount(map::add);
+            map.addAll(w.other);
+        }
+        return map;
+    }
+
+    /** Le strutture locali di un thread del pool */
+    private class Worker {
+        void count(Path p, Charset cs) {
+            try {
+                if (ByteTokenizer.supports(cs)) {
+                    ByteTokenizer t = tokenizers.computeIfAbsent(cs,
+                            c -> new ByteTokenizer(c, norm));
+                    try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                        t.count(ch);
+                    }
+                } else other.addAll(Utils.wordMap(p, cs.name(), norm));
+            } catch (IOException ex) { }   // Il file è ignorato
+        }
+
+        final Map<Charset,ByteTokenizer> tokenizers = new HashMap<>();
+        final CountMap other = new CountMap();  // Per gli altri charset
+    }
+
+    private Charset charsetOf(Path rel) {
+        for (Map.Entry<PathMatcher,Charset> e : charsets.entrySet())
+            if (e.getKey().matches(rel)) return e.getValue();
+        return defaultCharset;
+    }
+
+    private static boolean matches(List<PathMatcher> list, Path rel) {
+        for (PathMatcher m : list)
+            if (m.matches(rel)) return true;
+        return false;
+    }
+
+    private static PathMatcher matcher(String glob) {
+        return FileSystems.getDefault().getPathMatcher("glob:"+glob);
+    }
+
+    private final Charset defaultCharset;
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final Map<PathMatcher,Charset> charsets = new LinkedHashMap<>();
+    private WordNormalizer norm = null;
+}
@@ -0,0 +1,103 @@
+package mp.file;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/** Il nucleo comune delle visite di alberi di directory di {@link mp.file}:
+ * legge il contenuto di una directory insieme agli attributi di ogni elemento.
+ * Gli attributi ({@link BasicFileAttributes}) sono letti una sola volta per
+ * elemento, senza seguire i link simbolici, e da essi si ricava sia il tipo
+ * dell'elemento che la sua dimensione. Invece la sequenza
+ * {@code Files.isDirectory}, {@code Files.isRegularFile}, {@code Files.size}
+ * richiede fino a tre {@code stat} per ogni file, che su un file system di rete
+ * sono il costo principale della visita. Se il file system lo permette (vedi
+ * {@link SecureDirectoryStream}), gli attributi sono letti relativamente alla
+ * directory aperta, senza risolvere di nuovo l'intero percorso. Un
+ * {@link DirLister} diverso da {@link DirLister#standard()} può essere usato
+ * per simulare file system lenti. */
+@FunctionalInterface
+public interface DirLister {
+    /** Per ogni elemento della directory chiama action con il suo percorso e i
+     * suoi attributi. Gli elementi di cui non si possono leggere gli attributi
+     * sono ignorati.
+     * @param dir  percorso di una directory
+     * @param action  l'azione per ogni elemento
+     * @throws IOException se si verifica un errore leggendo la directory */
+    void list(Path dir, BiConsumer<Path,BasicFileAttributes> action)
+            throws IOException;
+
+    /** Ritorna la somma dei byte dei file regolari direttamente contenuti nella
+     * directory e passa a subdir le sue sub-directory. Gli errori di I/O sono
+     * ignorati: se la directory non si può leggere ritorna 0.
+     * @param dir  percorso di una directory
+     * @param subdir  l'azione per ogni sub-directory
+     * @return la somma dei byte dei file regolari contenuti nella directory */
+    default long filesSize(Path dir, Consumer<Path> subdir) {
+        long[] size = {0};
+        try {
+            list(dir, (p, a) -> {
+                if (a.isDirectory()) {
+                    subdir.accept(p);
+                } else if (a.isRegularFile())
+                    size[0] += a.size();
+            });
+        } catch (IOException ex) { }  // Ignora errori di I/O
+        return size[0];
+    }
+
+    /** @return il {@link DirLister} che legge il file system */
+    static DirLister standard() { return DirLister::readDir; }
+
+    /** Ritorna un {@link DirLister} che simula un file system con alta latenza,
+     * come un file system di rete: prima di leggere una directory aspetta
+     * dirNanos nanosecondi e prima di passare ogni elemento ne aspetta
+     * entryNanos, come se ogni {@code readdir} e ogni {@code stat} fossero una
+     * richiesta al server. Il thread aspetta senza consumare CPU.
+     * @param lister  il {@link DirLister} che legge effettivamente
+     * @param dirNanos  latenza per directory in nanosecondi
+     * @param entryNanos  latenza per elemento in nanosecondi
+     * @return il {@link DirLister} con latenza */
+    static DirLister withLatency(DirLister lister, long dirNanos, long entryNanos) {
+        return (dir, action) -> {
+            try {
+                TimeUnit.NANOSECONDS.sleep(dirNanos);
+                lister.list(dir, (p, a) -> {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(entryNanos);
+                    } catch (InterruptedException ex) {
+                        throw new CancellationException("Lettura interrotta");
+                    }
+                    action.accept(p, a);
+                });
+            } catch (InterruptedException | CancellationException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Lettura interrotta");
+            }
+        };
+    }
+
+    private static void readDir(Path dir, BiConsumer<Path,BasicFileAttributes> action)
+            throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            SecureDirectoryStream<Path> sds = ds instanceof SecureDirectoryStream ?
+                    (SecureDirectoryStream<Path>)ds : null;
+            for (Path e : ds) {
+                BasicFileAttributes a;
+                try {
+                    a = sds != null ? sds.getFileAttributeView(e.getFileName(),
+                            BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS)
+                            .readAttributes() : Files.readAttributes(e,
+                            BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException ex) { continue; }
+                action.accept(e, a);
+            }
+        } catch (DirectoryIteratorException ex) { throw ex.getCause(); }
+    }
+}
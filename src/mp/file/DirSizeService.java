@@ -0,0 +1,224 @@
+package mp.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** Un servizio che mantiene in memoria il numero totale di byte di un albero di
+ * directory, e di ogni suo sotto-albero, senza rivisitare l'albero ad ogni
+ * richiesta come {@link mp.file.Utils#totalSizeForkJoin(Path)}. La prima
+ * visita è parallela (Fork-Join) e registra ogni directory presso un
+ * {@link WatchService}. Un thread in background riceve gli eventi di
+ * creazione, modifica e cancellazione e, per ogni directory interessata, rilegge
+ * solamente quella directory: aggiorna la somma dei suoi file, visita le nuove
+ * sub-directory, elimina quelle scomparse e propaga la differenza ai soli
+ * antenati. Se il sistema operativo segnala la perdita di eventi
+ * ({@link StandardWatchEventKinds#OVERFLOW}) l'intero albero è rivisitato. Come
+ * per {@link mp.file.Utils#totalSize(Path)} i link simbolici non sono seguiti,
+ * solamente i file regolari sono conteggiati e gli errori di I/O sono ignorati;
+ * le directory che non si possono registrare (ad esempio per il limite di
+ * osservazioni del sistema) non sono aggiornate fino al prossimo
+ * {@link DirSizeService#rescan()}. I metodi sono thread-safe. */
+public class DirSizeService implements Closeable {
+    /** Crea il servizio per l'albero di radice data, visitandolo interamente,
+     * e avvia il thread in background.
+     * @param root  percorso della directory radice
+     * @return il servizio
+     * @throws IOException se non si può creare il {@link WatchService} */
+    public static DirSizeService start(Path root) throws IOException {
+        DirSizeService s = new DirSizeService(root);
+        Thread t = new Thread(s::watch, "DirSizeService "+root);
+        t.setDaemon(true);
+        t.start();              // Solo dopo la costruzione completa
+        return s;
+    }
+
+    /** @return il numero totale di byte contenuti nell'albero */
+    public synchronized long size() { return top.total; }
+
+    /** Ritorna il numero totale di byte contenuti nella directory data, che
+     * deve appartenere all'albero.
+     * @param dir  percorso di una directory dell'albero
+     * @return il numero totale di byte contenuti nella directory
+     * @throws IllegalArgumentException se dir non è una directory dell'albero */
+    public synchronized long size(Path dir) {
+        Node n = top;
+        for (Path name : root.relativize(dir)) {
+            if (name.toString().isEmpty()) break;     // dir è la radice
+            n = n.children.get(name);
+            if (n == null)
+                throw new IllegalArgumentException("Directory non nell'albero: "+dir);
+        }
+        return n.total;
+    }
+
+    /** Rivisita interamente l'albero, scartando i totali mantenuti. */
+    public synchronized void rescan() {
+        if (top != null) detach(top);
+        top = build(root, fileKey(root), null);
+    }
+
+    /** Termina il thread in background e le osservazioni delle directory.
+     * @throws IOException se si verifica un errore chiudendo il
+     * {@link WatchService} */
+    @Override
+    public void close() throws IOException { watcher.close(); }
+
+    /** Una directory dell'albero */
+    private static class Node {
+        Node(Path d, Object k, Node p) {
+            dir = d;
+            fileKey = k;
+            parent = p;
+        }
+
+        final Path dir;
+        final Object fileKey;    // Identifica la directory, anche se ricreata
+        final Node parent;
+        final Map<Path,Node> children = new HashMap<>();  // Per nome
+        long files;              // Byte dei file regolari direttamente contenuti
+        long total;              // Byte dell'intero sotto-albero
+        WatchKey key;            // null se la directory non è osservata
+    }
+
+    /** Il ciclo del thread in background: raccoglie le directory interessate
+     * da eventi e le aggiorna. */
+    private void watch() {
+        while (true) {
+            Set<WatchKey> ready = new LinkedHashSet<>();
+            try {
+                ready.add(watcher.take());
+                for (WatchKey k = watcher.poll() ; k != null ; k = watcher.poll())
+                    ready.add(k);       // Aggiorna insieme gli eventi già pronti
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+            boolean overflow = false;
+            for (WatchKey k : ready) {
+                for (WatchEvent<?> ev : k.pollEvents())
+                    if (ev.kind() == OVERFLOW) overflow = true;
+                k.reset();
+            }
+            synchronized (this) {
+                if (overflow) {
+                    rescan();
+                } else for (WatchKey k : ready) {
+                    Node n = nodes.get(k);
+                    if (n != null) refresh(n);   // null se già eliminata
+                }
+            }
+        }
+    }
+
+    /** Visita il sotto-albero della directory data registrando le directory.
+     * La directory è registrata prima di essere letta, così nessuna modifica
+     * successiva alla lettura va perduta. */
+    private Node build(Path dir, Object fileKey, Node parent) {
+        Node n = new Node(dir, fileKey, parent);
+        try {
+            n.key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            nodes.put(n.key, n);
+        } catch (IOException | ClosedWatchServiceException ex) { }
+        List<ForkJoinTask<Node>> tasks = new ArrayList<>();
+        n.files = filesSize(dir, (e, k) ->
+                tasks.add(ForkJoinTask.adapt(() -> build(e, k, n))));
+        n.total = n.files;
+        for (ForkJoinTask<Node> t : ForkJoinTask.invokeAll(tasks)) {
+            Node c = t.join();
+            n.children.put(c.dir.getFileName(), c);
+            n.total += c.total;
+        }
+        return n;
+    }
+
+    /** Rilegge la directory del nodo dato e propaga agli antenati la
+     * differenza del totale. */
+    private void refresh(Node n) {
+        long old = n.total;
+        if (!Files.isDirectory(n.dir, NOL)) {   // Directory scomparsa
+            detach(n);
+            if (n.parent != null) n.parent.children.remove(n.dir.getFileName());
+            n.files = 0;
+            n.total = 0;
+        } else {
+            Set<Path> names = new HashSet<>();
+            n.files = filesSize(n.dir, (e, k) -> {
+                Path name = e.getFileName();
+                names.add(name);
+                Node c = n.children.get(name);
+                if (c == null || c.key == null || !c.key.isValid() ||
+                        !Objects.equals(c.fileKey, k)) {  // Nuova o ricreata o
+                    if (c != null) detach(c);               // non osservata
+                    n.children.put(name, build(e, k, n));
+                }
+            });
+            for (Iterator<Node> it = n.children.values().iterator() ; it.hasNext() ; ) {
+                Node c = it.next();
+                if (!names.contains(c.dir.getFileName())) {
+                    detach(c);
+                    it.remove();
+                }
+            }
+            n.total = n.files;
+            for (Node c : n.children.values()) n.total += c.total;
+        }
+        long delta = n.total - old;
+        for (Node p = n.parent ; p != null && delta != 0 ; p = p.parent)
+            p.total += delta;
+    }
+
+    /** Ritorna la somma dei byte dei file regolari direttamente contenuti
+     * nella directory e passa a subdir ogni sub-directory con la sua
+     * {@link BasicFileAttributes#fileKey()}. Gli errori di I/O sono ignorati. */
+    private static long filesSize(Path dir, BiConsumer<Path,Object> subdir) {
+        long[] size = {0};
+        try {
+            DIRS.list(dir, (p, a) -> {
+                if (a.isDirectory()) {
+                    subdir.accept(p, a.fileKey());
+                } else if (a.isRegularFile())
+                    size[0] += a.size();
+            });
+        } catch (IOException ex) { }  // Ignora errori di I/O
+        return size[0];
+    }
+
+    /** Ritorna la {@link BasicFileAttributes#fileKey()} della directory o
+     * null se non si può leggere. */
+    private static Object fileKey(Path dir) {
+        try {
+            return Files.readAttributes(dir, BasicFileAttributes.class, NOL).fileKey();
+        } catch (IOException ex) { return null; }
+    }
+
+    /** Cancella le osservazioni del sotto-albero del nodo dato. */
+    private void detach(Node n) {
+        if (n.key != null) {
+            n.key.cancel();
+            nodes.remove(n.key);
+            n.key = null;
+        }
+        for (Node c : n.children.values()) detach(c);
+    }
+
+    private DirSizeService(Path root) throws IOException {
+        this.root = root;
+        watcher = root.getFileSystem().newWatchService();
+        rescan();
+    }
+
+    private static final LinkOption NOL = LinkOption.NOFOLLOW_LINKS;
+    private static final DirLister DIRS = DirLister.standard();
+
+    private final Path root;
+    private final WatchService watcher;
+    private final Map<WatchKey,Node> nodes = new ConcurrentHashMap<>();
+    private Node top;                     // Il nodo della radice
+}
@@ -0,0 +1,179 @@
+package mp.file;
+
+import java.nio.file.Path;
+import java.util.*;
+
+import static mp.util.Utils.toGMKB;
+
+/** Il risultato di una visita di un albero di directory in stile {@code du}:
+ * oltre al numero totale di byte, come {@link mp.file.Utils#totalSize(Path)},
+ * riporta il numero di file regolari, di directory e di altri elementi (link
+ * simbolici, ecc.), il numero di file e di byte per estensione e i file più
+ * grandi. Tutto è calcolato in un'unica visita parallela con
+ * {@link mp.file.ParallelWalk}: ogni thread del pool accumula in strutture
+ * locali, tra cui un heap limitato per i file più grandi, che sono fuse
+ * solamente alla fine. Le directory sono
+ * lette con {@link mp.file.DirLister}, quindi i link simbolici non sono seguiti
+ * e gli errori di I/O sono ignorati. */
+public class DiskScan {
+    /** Il numero di file e di byte di un'estensione */
+    public static class ExtStats {
+        /** L'estensione in minuscolo, senza punto, o "" se i file non hanno
+         * estensione */
+        public final String ext;
+
+        /** @return il numero di file regolari con l'estensione */
+        public long files() { return files; }
+
+        /** @return il numero totale di byte dei file con l'estensione */
+        public long bytes() { return bytes; }
+
+        @Override
+        public String toString() {
+            return (ext.isEmpty() ? "(nessuna)" : "."+ext)+" "+files+" file "+
+                    toGMKB(bytes);
+        }
+
+        private ExtStats(String ext) { this.ext = ext; }
+
+        private long files = 0, bytes = 0;
+    }
+
+    /** Un file regolare con la sua dimensione */
+    public static class FileSize {
+        public final Path path;
+        public final long size;
+
+        @Override
+        public String toString() { return toGMKB(size)+" "+path; }
+
+        private FileSize(Path p, long s) {
+            path = p;
+            size = s;
+        }
+    }
+
+    /** Visita l'albero di radice data con il {@link DirLister} standard.
+     * @param root  percorso della directory radice
+     * @param top  quanti dei file più grandi riportare
+     * @return il risultato della visita
+     * @throws IllegalArgumentException se top è negativo */
+    public static DiskScan scan(Path root, int top) {
+        return scan(root, top, DirLister.standard());
+    }
+
+    /** Visita l'albero di radice data leggendo le directory con il
+     * {@link DirLister} dato.
+     * @param root  percorso della directory radice
+     * @param top  quanti dei file più grandi riportare
+     * @param lister  legge il contenuto delle directory
+     * @return il risultato della visita
+     * @throws IllegalArgumentException se top è negativo */
+    public static DiskScan scan(Path root, int top, DirLister lister) {
+        if (top < 0) throw new IllegalArgumentException("top negativo: "+top);
+        Collection<DiskScan> workers = ParallelWalk.walk(root, lister,
+                () -> new DiskScan(top), (w, e, a) -> {
+                    if (a.isDirectory()) {
+                        w.dirs++;
+                    } else if (a.isRegularFile()) {
+                        w.addFile(e, a.size());
+                    } else w.others++;
+                    return true;
+                });
+        DiskScan scan = new DiskScan(top);
+        scan.dirs = 1;                           // La radice
+        for (DiskScan w : workers) scan.merge(w);
+        return scan;
+    }
+
+    /** @return il numero totale di byte dei file regolari */
+    public long size() { return size; }
+
+    /** @return il numero di file regolari */
+    public long files() { return files; }
+
+    /** @return il numero di directory, inclusa la radice */
+    public long dirs() { return dirs; }
+
+    /** @return il numero di elementi che non sono né file regolari né
+     * directory, ad esempio i link simbolici */
+    public long others() { return others; }
+
+    /** @return le statistiche per estensione in ordine di byte decrescenti */
+    public List<ExtStats> byExtension() {
+        List<ExtStats> list = new ArrayList<>(exts.values());
+        list.sort((a, b) -> Long.compare(b.bytes, a.bytes));
+        return list;
+    }
+
+    /** @return i file più grandi in ordine di dimensione decrescente */
+    public List<FileSize> largest() {
+        List<FileSize> list = new ArrayList<>(largest);
+        list.sort((a, b) -> Long.compare(b.size, a.size));
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(toGMKB(size)).append(" in ").append(files).append(" file, ")
+                .append(dirs).append(" directory, ").append(others)
+                .append(" altri\n");
+        for (ExtStats e : byExtension()) sb.append("  ").append(e).append('\n');
+        for (FileSize f : largest()) sb.append("  ").append(f).append('\n');
+        return sb.toString();
+    }
+
+    private DiskScan(int top) {
+        this.top = top;
+        largest = new PriorityQueue<>(Math.min(top, MAX_INITIAL) + 1,
+                Comparator.comparingLong(f -> f.size));
+    }
+
+    private void addFile(Path p, long s) {
+        size += s;
+        files++;
+        ExtStats e = exts.computeIfAbsent(extension(p), ExtStats::new);
+        e.files++;
+        e.bytes += s;
+        if (largest.size() < top || top > 0 && s > largest.peek().size)
+            offer(new FileSize(p, s));   // Crea l'oggetto solo se serve
+    }
+
+    /** Aggiunge il file all'heap se è tra i top più grandi. L'heap ha la radice
+     * minima, quindi basta confrontare il file con la radice. */
+    private void offer(FileSize f) {
+        if (largest.size() < top) {
+            largest.add(f);
+        } else if (top > 0 && f.size > largest.peek().size) {
+            largest.poll();
+            largest.add(f);
+        }
+    }
+
+    private void merge(DiskScan w) {
+        size += w.size;
+        files += w.files;
+        dirs += w.dirs;
+        others += w.others;
+        for (ExtStats we : w.exts.values()) {
+            ExtStats e = exts.computeIfAbsent(we.ext, ExtStats::new);
+            e.files += we.files;
+            e.bytes += we.bytes;
+        }
+        for (FileSize f : w.largest) offer(f);
+    }
+
+    private static String extension(Path p) {
+        String name = p.getFileName().toString();
+        int i = name.lastIndexOf('.');
+        return i > 0 ? name.substring(i + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static final int MAX_INITIAL = 1024;     // Capacità iniziale massima dell'heap
+
+    private final int top;
+    private long size = 0, files = 0, dirs = 0, others = 0;
+    private final Map<String,ExtStats> exts = new HashMap<>();
+    private final PriorityQueue<FileSize> largest;   // Heap dei più grandi
+}
@@ -0,0 +1,273 @@
+package mp.file;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Calcola lo spazio occupato da un albero di directory, come
+ * {@link mp.file.Utils#totalSize(Path)}, scegliendo da solo la strategia di
+ * visita invece di lasciare al chiamante la scelta tra le varianti
+ * {@code totalSize*} di {@link mp.file.Utils}. La visita inizia in modo
+ * sequenziale (in profondità, con una pila esplicita) nel thread del
+ * chiamante e per tutta la sua durata campiona la forma dell'albero: numero di
+ * directory in attesa di essere lette (la frontiera) e tempo per leggere una
+ * directory. Ogni {@link DiskUsage#SAMPLE_DIRS} directory lette, da qualsiasi
+ * thread, sceglie la strategia in base alle ultime directory:
+ * <ul>
+ *     <li>se la frontiera è troppo piccola per lavorare in parallelo (albero
+ *     profondo e stretto) la visita è sequenziale: ogni thread continua con
+ *     le proprie directory senza distribuirle;</li>
+ *     <li>se leggere una directory è lento (file system di rete o disco
+ *     freddo), cioè il costo è la latenza di I/O, le directory in attesa sono
+ *     date a un pool limitato di {@link DiskUsage#IO_THREADS} thread, molti
+ *     più dei processori, per avere tante letture in corso
+ *     contemporaneamente;</li>
+ *     <li>altrimenti le directory in attesa sono date a un
+ *     {@link java.util.concurrent.ForkJoinPool}, che divide il lavoro tra i
+ *     processori.</li>
+ * </ul>
+ * Ogni thread visita le sue directory con una pila e dopo ogni directory
+ * distribuisce quelle in attesa, tranne una, secondo la strategia attuale;
+ * un task che inizia in un pool diverso da quello della strategia attuale è
+ * spostato nell'altro pool. Così la strategia cambia quando la visita
+ * incontra un sotto-albero diverso, ad esempio un mount lento o una lunga
+ * catena di directory. Come per {@link mp.file.Utils#totalSize(Path)} i link
+ * simbolici non sono seguiti, solamente i file regolari sono conteggiati e gli
+ * errori di I/O sono ignorati. */
+public class DiskUsage {
+    /** Le strategie di visita */
+    public enum Strategy { SEQUENTIAL, FORK_JOIN, IO_POOL }
+
+    /** Il risultato di una visita con le statistiche del campionamento */
+    public static class Result {
+        /** Numero totale di byte dei file regolari */
+        public final long size;
+        /** La strategia con cui sono state lette più directory */
+        public final Strategy strategy;
+        /** Numero di directory lette */
+        public final long dirs;
+        /** Numero medio di sub-directory per directory */
+        public final double fanOut;
+        /** Profondità massima */
+        public final int depth;
+        /** Tempo medio in nanosecondi per leggere una directory */
+        public final long nanosPerDir;
+        /** Numero di volte che la strategia è cambiata */
+        public final int switches;
+
+        /** Ritorna il numero di directory lette con la strategia data.
+         * @param s  una strategia
+         * @return il numero di directory lette con la strategia */
+        public long dirs(Strategy s) { return byStrategy[s.ordinal()]; }
+
+        @Override
+        public String toString() {
+            return String.format("%d bytes, %s %s, %d cambi (%d dir, fan-out %.1f, "+
+                    "profondità %d, %d us/dir)", size, strategy,
+                    Arrays.toString(byStrategy), switches, dirs, fanOut, depth,
+                    nanosPerDir/1000);
+        }
+
+        private Result(long size, long[] byStrategy, int switches, long dirs,
+                       long subdirs, int depth, long nanos) {
+            this.size = size;
+            this.byStrategy = byStrategy;
+            Strategy s = Strategy.SEQUENTIAL;
+            for (Strategy x : Strategy.values())
+                if (byStrategy[x.ordinal()] > byStrategy[s.ordinal()]) s = x;
+            strategy = s;
+            this.switches = switches;
+            this.dirs = dirs;
+            fanOut = dirs > 0 ? (double)subdirs/dirs : 0;
+            this.depth = depth;
+            nanosPerDir = dirs > 0 ? nanos/dirs : 0;
+        }
+
+        private final long[] byStrategy;
+    }
+
+    /** Ritorna il numero totale di byte contenuti nella directory specificata.
+     * @param d  percorso di una directory
+     * @return il numero totale di byte contenuti nella directory */
+    public static long size(Path d) { return usage(d).size; }
+
+    /** Visita la directory specificata e ritorna il numero totale di byte
+     * contenuti insieme alle strategie usate e alle statistiche raccolte.
+     * @param d  percorso di una directory
+     * @return il risultato della visita
+     * @throws CancellationException se il thread è interrotto durante la visita
+     * parallela (lo stato di interruzione è ripristinato) */
+    public static Result usage(Path d) { return usage(d, DirLister.standard()); }
+
+    /** Come {@link DiskUsage#usage(Path)} ma legge le directory con il
+     * {@link DirLister} dato, ad esempio per simulare un file system lento.
+     * @param d  percorso di una directory
+     * @param lister  legge il contenuto delle directory
+     * @return il risultato della visita
+     * @throws CancellationException se il thread è interrotto durante la visita
+     * parallela (lo stato di interruzione è ripristinato) */
+    public static Result usage(Path d, DirLister lister) {
+        return new Walk(lister).run(d);
+    }
+
+    /** Numero di directory lette tra due decisioni */
+    public static final int SAMPLE_DIRS = 32;
+    /** Numero minimo di directory in attesa per una visita parallela */
+    public static final int MIN_FRONTIER = 4;
+    /** Tempo medio di lettura di una directory oltre il quale la visita è
+     * considerata limitata dalla latenza di I/O. Si torna al Fork-Join sotto
+     * la metà di questo tempo, per non cambiare continuamente strategia. */
+    public static final long SLOW_DIR_NANOS = 1_000_000;
+    /** Numero di thread del pool per l'I/O */
+    public static final int IO_THREADS = Math.min(64,
+            Math.max(16, 4*Runtime.getRuntime().availableProcessors()));
+
+    /** Una directory in attesa di essere letta */
+    private static class Pending {
+        Pending(Path dir, int depth) {
+            this.dir = dir;
+            this.depth = depth;
+        }
+
+        final Path dir;
+        final int depth;
+    }
+
+    /** Lo stato di una visita */
+    private static class Walk {
+        Walk(DirLister lister) { this.lister = lister; }
+
+        Result run(Path root) {
+            Deque<Pending> stack = new ArrayDeque<>();
+            stack.push(new Pending(root, 0));
+            try {
+                walk(stack);                        // Il chiamante partecipa
+                if (pending.decrementAndGet() == 0) done.countDown();
+                done.await();
+            } catch (InterruptedException e) {
+                cancelled = true;                   // Ferma i task in corso
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Visita interrotta");
+            } finally {
+                synchronized (this) {
+                    if (forkJoin != null) forkJoin.shutdownNow();
+                    if (io != null) io.shutdownNow();
+                }
+            }
+            long[] by = new long[byStrategy.length];
+            for (int i = 0 ; i < by.length ; i++) by[i] = byStrategy[i].sum();
+            return new Result(size.sum(), by, switches, read.get(), subdirs.sum(),
+                    maxDepth, nanos.sum());
+        }
+
+        /** Visita le directory nella pila e nei loro sotto-alberi, dando ai
+         * pool le directory in attesa quando la strategia è parallela. Si
+         * ferma se la visita è interrotta. */
+        void walk(Deque<Pending> stack) {
+            while (!stack.isEmpty()) {
+                if (cancelled || Thread.currentThread().isInterrupted()) return;
+                Pending p = stack.pop();
+                int[] n = {0};
+                long t = System.nanoTime();
+                size.add(lister.filesSize(p.dir, e -> {
+                    stack.push(new Pending(e, p.depth + 1));
+                    n[0]++;
+                }));
+                t = System.nanoTime() - t;
+                nanos.add(t);
+                subdirs.add(n[0]);
+                frontier.addAndGet(n[0] - 1);
+                Strategy s = strategy;
+                byStrategy[s.ordinal()].increment();
+                if (p.depth > maxDepth) updateDepth(p.depth);
+                if (read.incrementAndGet() % SAMPLE_DIRS == 0) s = decide();
+                if (s != Strategy.SEQUENTIAL)
+                    while (stack.size() > 1)        // Le più vicine alla radice
+                        submit(stack.pollLast(), s);
+            }
+        }
+
+        /** Sceglie la strategia in base alle ultime SAMPLE_DIRS directory */
+        synchronized Strategy decide() {
+            long total = nanos.sum(), avg = (total - lastNanos)/SAMPLE_DIRS;
+            lastNanos = total;
+            Strategy s;
+            if (frontier.get() < MIN_FRONTIER) {
+                s = Strategy.SEQUENTIAL;
+            } else if (avg >= SLOW_DIR_NANOS || strategy == Strategy.IO_POOL &&
+                    avg >= SLOW_DIR_NANOS/2) {
+                s = Strategy.IO_POOL;
+            } else s = Strategy.FORK_JOIN;
+            if (s != strategy) switches++;
+            strategy = s;
+            return s;
+        }
+
+        synchronized void updateDepth(int depth) {
+            if (depth > maxDepth) maxDepth = depth;
+        }
+
+        /** Esegue la visita della directory nel pool della strategia data */
+        void submit(Pending p, Strategy s) {
+            pending.incrementAndGet();
+            try {
+                pool(s).execute(new Task(p, s));
+            } catch (RejectedExecutionException e) {     // Visita interrotta
+                if (pending.decrementAndGet() == 0) done.countDown();
+            }
+        }
+
+        synchronized ExecutorService pool(Strategy s) {
+            if (s == Strategy.IO_POOL) {
+                if (io == null) io = Executors.newFixedThreadPool(IO_THREADS);
+                return io;
+            }
+            if (forkJoin == null) forkJoin = new ForkJoinPool();
+            return forkJoin;
+        }
+
+        /** Un task che visita il sotto-albero di una directory */
+        class Task implements Runnable {
+            Task(Pending p, Strategy s) {
+                this.p = p;
+                this.s = s;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    Strategy now = strategy;
+                    if (now != Strategy.SEQUENTIAL && now != s) {
+                        submit(p, now);             // Sposta nell'altro pool
+                    } else {
+                        Deque<Pending> stack = new ArrayDeque<>();
+                        stack.push(p);
+                        walk(stack);
+                    }
+                } finally {
+                    if (pending.decrementAndGet() == 0) done.countDown();
+                }
+            }
+
+            final Pending p;
+            final Strategy s;
+        }
+
+        final DirLister lister;
+        final LongAdder size = new LongAdder(), nanos = new LongAdder(),
+                subdirs = new LongAdder();
+        final LongAdder[] byStrategy = {new LongAdder(), new LongAdder(), new LongAdder()};
+        final AtomicLong read = new AtomicLong();       // Directory lette
+        final AtomicLong frontier = new AtomicLong(1);  // Directory da leggere
+        final AtomicLong pending = new AtomicLong(1);   // Task e chiamante attivi
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Strategy strategy = Strategy.SEQUENTIAL;
+        volatile boolean cancelled = false;
+        volatile int maxDepth = 0;
+        int switches = 0;                               // Sincronizzati da decide
+        long lastNanos = 0;
+        ExecutorService forkJoin, io;                   // Creati quando servono
+    }
+}
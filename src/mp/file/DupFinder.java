@@ -0,0 +1,273 @@
+package mp.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static mp.util.Utils.toGMKB;
+
+/** Trova i file duplicati, cioè con lo stesso contenuto, in un albero di
+ * directory leggendo il meno possibile. Procede in tre passi:
+ * <ol>
+ *     <li>una visita parallela con {@link mp.file.ParallelWalk} raggruppa i
+ *     file regolari per dimensione: i file con una dimensione unica non
+ *     possono avere duplicati e non sono mai letti;</li>
+ *     <li>dei file con la stessa dimensione calcola l'hash del primo e
+ *     dell'ultimo blocco e li raggruppa per tale hash;</li>
+ *     <li>solamente dei file che collidono ancora calcola l'hash dell'intero
+ *     contenuto, leggendolo tramite la mappatura in memoria.</li>
+ * </ol>
+ * Gli hash sono SHA-256 e sono calcolati in parallelo, un task per file. Ogni
+ * gruppo di duplicati è passato all'azione appena è confermato, senza
+ * aspettare la fine della ricerca. I file più piccoli di due blocchi sono
+ * letti interamente già nel secondo passo. I link simbolici non sono seguiti
+ * e i file che non si possono leggere o che cambiano dimensione durante la
+ * ricerca sono ignorati. I link fisici allo stesso file (con la stessa
+ * {@link java.nio.file.attribute.BasicFileAttributes#fileKey()}) non sono
+ * duplicati: prima di leggere i file ne è tenuto uno solo, quello con il
+ * percorso minore.
+ * Esempio:
+ * <pre>
+ *     DupFinder f = DupFinder.find(root, g -&gt; System.out.println(g));
+ *     System.out.println(f);
+ * </pre> */
+public class DupFinder {
+    /** Un gruppo di file con lo stesso contenuto */
+    public static class Group {
+        /** La dimensione di ognuno dei file */
+        public final long size;
+        /** I file, in ordine di percorso */
+        public final List<Path> files;
+
+        /** @return il numero di byte che si risparmiano tenendo solamente uno
+         * dei file */
+        public long wasted() { return size*(files.size() - 1); }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(files.size()).append(" x ").append(toGMKB(size)).append('\n');
+            for (Path p : files) sb.append("  ").append(p).append('\n');
+            return sb.toString();
+        }
+
+        private Group(long size, List<Path> files) {
+            this.size = size;
+            Collections.sort(files);
+            this.files = Collections.unmodifiableList(files);
+        }
+    }
+
+    /** Cerca i duplicati nell'albero di radice data, ignorando i file vuoti.
+     * @param root  percorso della directory radice
+     * @param action  l'azione invocata per ogni gruppo di duplicati trovato
+     * @return le statistiche della ricerca */
+    public static DupFinder find(Path root, Consumer<Group> action) {
+        return find(root, 1, DirLister.standard(), action);
+    }
+
+    /** Cerca i duplicati nell'albero di radice data leggendo le directory con
+     * il {@link DirLister} dato. L'azione è invocata dai thread della ricerca,
+     * ma mai da due thread contemporaneamente.
+     * @param root  percorso della directory radice
+     * @param minSize  dimensione minima dei file da considerare
+     * @param lister  legge il contenuto delle directory
+     * @param action  l'azione invocata per ogni gruppo di duplicati trovato
+     * @return le statistiche della ricerca
+     * @throws IllegalArgumentException se minSize è negativo */
+    public static DupFinder find(Path root, long minSize, DirLister lister,
+                                 Consumer<Group> action) {
+        if (minSize < 0) throw new IllegalArgumentException("minSize negativo: "+minSize);
+        DupFinder f = new DupFinder(action);
+        // Per ogni thread: dimensione -> (fileKey o percorso) -> percorso
+        Collection<Map<Long,Map<Object,Path>>> workers = ParallelWalk.walk(root,
+                lister, HashMap::new, (w, e, a) -> {
+                    if (a.isRegularFile() && a.size() >= minSize) {
+                        Object key = a.fileKey() != null ? a.fileKey() : e;
+                        w.computeIfAbsent(a.size(), s -> new HashMap<>())
+                                .merge(key, e, DupFinder::min);
+                    }
+                    return true;
+                });
+        Map<Long,Map<Object,Path>> bySize = new HashMap<>();
+        for (Map<Long,Map<Object,Path>> w : workers)
+            w.forEach((size, files) -> bySize.merge(size, files, (m, n) -> {
+                n.forEach((key, e) -> m.merge(key, e, DupFinder::min));
+                return m;
+            }));
+        workers.clear();
+        List<SizeGroup> groups = new ArrayList<>();
+        bySize.forEach((size, files) -> {
+            f.files += files.size();
+            if (files.size() > 1) {
+                f.candidates += files.size();
+                groups.add(f.new SizeGroup(size, new ArrayList<>(files.values())));
+            }
+        });
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() { invokeAll(groups); }
+            });
+        } finally { pool.shutdown(); }
+        return f;
+    }
+
+    /** @return il numero di file regolari visitati, contando una sola volta
+     * i link fisici allo stesso file */
+    public long files() { return files; }
+
+    /** @return il numero di file con la stessa dimensione di almeno un altro,
+     * di cui sono stati letti il primo e l'ultimo blocco */
+    public long candidates() { return candidates; }
+
+    /** @return il numero di file letti interamente */
+    public long fullyHashed() { return fullyHashed.sum(); }
+
+    /** @return il numero totale di byte letti */
+    public long bytesRead() { return bytesRead.sum(); }
+
+    /** @return il numero di gruppi di duplicati */
+    public long groups() { return groups; }
+
+    /** @return il numero totale di byte che si risparmiano tenendo un solo
+     * file per gruppo */
+    public long wasted() { return wasted; }
+
+    @Override
+    public String toString() {
+        return groups+" gruppi di duplicati, "+toGMKB(wasted)+" sprecati; "+files+
+                " file, "+candidates+" candidati, "+fullyHashed()+" letti interamente, "+
+                toGMKB(bytesRead())+" letti";
+    }
+
+    /** I file con la stessa dimensione: li raggruppa per hash del primo e
+     * dell'ultimo blocco e poi, se serve, per hash dell'intero contenuto */
+    @SuppressWarnings("serial")
+    private class SizeGroup extends RecursiveAction {
+        SizeGroup(long size, List<Path> files) {
+            this.size = size;
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            boolean whole = size <= 2*BLOCK;    // Letti interamente
+            for (List<Path> g : byHash(files, p -> ends(p, size)))
+                if (whole) {
+                    emit(new Group(size, g));
+                } else {
+                    for (List<Path> d : byHash(g, p -> full(p, size)))
+                        emit(new Group(size, d));
+                }
+        }
+
+        final long size;
+        final List<Path> files;
+    }
+
+    /** Una funzione che calcola l'hash di un file */
+    private interface Hasher {
+        byte[] hash(Path p) throws IOException;
+    }
+
+    /** Calcola in parallelo gli hash dei file e ritorna i gruppi di almeno due
+     * file con lo stesso hash. I file che non si possono leggere sono
+     * ignorati. */
+    private static List<List<Path>> byHash(List<Path> files, Hasher h) {
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>();
+        for (Path p : files)
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try {
+                    return h.hash(p);
+                } catch (IOException ex) { return null; }  // Ignora il file
+            }));
+        ForkJoinTask.invokeAll(tasks);
+        Map<ByteBuffer,List<Path>> map = new HashMap<>();
+        for (int i = 0 ; i < files.size() ; i++) {
+            byte[] hash = tasks.get(i).join();
+            if (hash != null)
+                map.computeIfAbsent(ByteBuffer.wrap(hash), k -> new ArrayList<>())
+                        .add(files.get(i));
+        }
+        List<List<Path>> groups = new ArrayList<>();
+        for (List<Path> g : map.values())
+            if (g.size() > 1) groups.add(g);
+        return groups;
+    }
+
+    /** Ritorna l'hash del primo e dell'ultimo blocco del file, o dell'intero
+     * file se non è più grande di due blocchi. */
+    private byte[] ends(Path p, long size) throws IOException {
+        MessageDigest md = digest();
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            if (ch.size() != size) throw new IOException("Dimensione cambiata: "+p);
+            if (size <= 2*BLOCK) {
+                read(ch, 0, (int)size, md);
+            } else {
+                read(ch, 0, BLOCK, md);
+                read(ch, size - BLOCK, BLOCK, md);
+            }
+        }
+        return md.digest();
+    }
+
+    /** Ritorna l'hash dell'intero file, mappandolo in memoria a segmenti */
+    private byte[] full(Path p, long size) throws IOException {
+        MessageDigest md = digest();
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            if (ch.size() != size) throw new IOException("Dimensione cambiata: "+p);
+            for (long pos = 0 ; pos < size ; pos += MAP_SEGMENT)
+                md.update(ch.map(FileChannel.MapMode.READ_ONLY, pos,
+                        Math.min(MAP_SEGMENT, size - pos)));
+        }
+        fullyHashed.increment();
+        bytesRead.add(size);
+        return md.digest();
+    }
+
+    private void read(FileChannel ch, long pos, int n, MessageDigest md) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        while (buf.hasRemaining())
+            if (ch.read(buf, pos + buf.position()) < 0)
+                throw new IOException("Fine del file inattesa");
+        buf.flip();
+        md.update(buf);
+        bytesRead.add(n);
+    }
+
+    private synchronized void emit(Group g) {
+        groups++;
+        wasted += g.wasted();
+        action.accept(g);
+    }
+
+    private static Path min(Path a, Path b) { return a.compareTo(b) <= 0 ? a : b; }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) { throw new IllegalStateException(ex); }
+    }
+
+    private DupFinder(Consumer<Group> action) { this.action = action; }
+
+    private static final int BLOCK = 4096;                 // Blocco iniziale e finale
+    private static final long MAP_SEGMENT = 1L << 28;      // 256MB mappati alla volta
+
+    private final Consumer<Group> action;
+    private long files = 0, candidates = 0;
+    private long groups = 0, wasted = 0;                   // Sincronizzati da emit
+    private final LongAdder fullyHashed = new LongAdder(), bytesRead = new LongAdder();
+}
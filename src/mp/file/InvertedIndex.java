@@ -0,0 +1,483 @@
+package mp.file;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.Consumer;
+
+/** Un indice invertito persistente di file di testo. Ad ogni parola, secondo le
+ * regole di {@link mp.file.Utils#wordMap(Path, String)}, associa i file che la
+ * contengono e le posizioni (indice della parola nel file, a partire da 0) in
+ * cui appare. L'indice è mantenuto in una generazione, una sub-directory
+ * {@code gen-N} della directory dell'indice, con tre file:
+ * <pre>
+ *     docs.idx      i file indicizzati con dimensione e data di modifica
+ *     dict.idx      le parole con la posizione della loro lista in postings.idx
+ *     postings.idx  le liste delle occorrenze (posting list) compresse
+ * </pre>
+ * Il file {@code CURRENT} contiene il nome della generazione attuale. Un
+ * aggiornamento scrive una nuova generazione e poi la pubblica sostituendo
+ * {@code CURRENT} con una mossa atomica, quindi un'interruzione in qualsiasi
+ * momento lascia l'indice vecchio o quello nuovo, mai un miscuglio dei due.
+ * Le stringhe (parole e percorsi) sono scritte come lunghezza a lunghezza
+ * variabile seguita dai byte UTF-8, quindi non hanno limiti di lunghezza.
+ * Il dizionario è caricato in memoria mentre le posting list sono lette da
+ * {@code postings.idx} mappato in memoria. Ogni posting list contiene, per ogni
+ * file in ordine di id crescente, la differenza dall'id precedente e le
+ * differenze tra posizioni successive, tutte codificate come interi a lunghezza
+ * variabile (7 bit per byte), con uno 0 che termina le posizioni di un file.
+ * L'aggiornamento ({@link InvertedIndex#update}) ri-tokenizza solamente i file
+ * nuovi o modificati, copiando le occorrenze dei file non modificati dal vecchio
+ * indice. Le interrogazioni possono essere eseguite da più thread ma non in
+ * concorrenza con un aggiornamento. */
+public class InvertedIndex implements Closeable {
+    /** Apre l'indice nella directory data. Se la directory o l'indice non
+     * esistono, sono creati vuoti.
+     * @param dir  la directory dell'indice
+     * @return l'indice
+     * @throws IOException se si verifica un errore leggendo l'indice */
+    public static InvertedIndex open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        InvertedIndex index = new InvertedIndex(dir);
+        index.load();
+        return index;
+    }
+
+    /** Aggiorna l'indice con i file dati, che sono decodificati con il charset
+     * specificato. I file non ancora indicizzati sono aggiunti, quelli la cui
+     * dimensione, data di modifica o charset sono cambiati sono ri-indicizzati
+     * e quelli che non esistono più sono rimossi dall'indice, anche se non
+     * sono tra i file dati. Gli altri file già indicizzati restano invariati.
+     * @param files  i file da indicizzare
+     * @param charset  il charset per decodificare i caratteri dei file
+     * @throws IOException se si verifica un errore leggendo un file o
+     * scrivendo l'indice */
+    public synchronized void update(Collection<Path> files, String charset)
+            throws IOException {
+        Map<Integer,Doc> kept = new TreeMap<>(docs);
+        kept.values().removeIf(d -> !Files.isRegularFile(d.path));
+        boolean changed = kept.size() != docs.size();
+        List<Doc> added = new ArrayList<>();
+        Map<Path,Doc> byPath = new HashMap<>();
+        for (Doc d : kept.values()) byPath.put(d.path, d);
+        for (Path p : files) {
+            p = p.toAbsolutePath().normalize();
+            BasicFileAttributes a;
+            try {
+                a = Files.readAttributes(p, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) { continue; }
+            if (!a.isRegularFile()) continue;
+            Doc old = byPath.get(p);
+            long mtime = a.lastModifiedTime().toMillis();
+            if (old != null && old.size == a.size() && old.mtime == mtime &&
+                    old.charset.equals(charset)) continue;
+            if (old != null) kept.remove(old.id);   // Il vecchio id è ritirato
+            Doc d = new Doc(nextId++, p, charset, a.size(), mtime);
+            byPath.put(p, d);
+            added.add(d);
+            changed = true;
+        }
+        if (!changed) return;
+        Map<String,Encoder> fresh = new HashMap<>();
+        for (Doc d : added) {                       // Tokenizza i nuovi file
+            int[] pos = {0};
+            forEachWord(d.path, d.charset, w -> fresh.computeIfAbsent(w,
+                    k -> new Encoder()).add(d.id, pos[0]++));
+        }
+        Map<Integer,Doc> all = new TreeMap<>(kept);
+        for (Doc d : added) all.put(d.id, d);
+        write(all, fresh);
+        load();
+    }
+
+    /** @return i file indicizzati */
+    public List<Path> files() {
+        List<Path> list = new ArrayList<>();
+        for (Doc d : docs.values()) list.add(d.path);
+        return list;
+    }
+
+    /** Ritorna i file che contengono la parola data.
+     * @param word  una parola
+     * @return i file che contengono la parola */
+    public List<Path> find(String word) { return toPaths(docIds(word)); }
+
+    /** Ritorna le posizioni della parola data in ogni file che la contiene.
+     * @param word  una parola
+     * @return mappa che ad ogni file che contiene la parola associa le
+     * posizioni in ordine crescente */
+    public Map<Path,int[]> positions(String word) {
+        Map<Path,int[]> map = new LinkedHashMap<>();
+        Term t = dict.get(word);
+        if (t == null) return map;
+        Reader r = new Reader(segs, t.offset);
+        int doc = -1;
+        for (int k = 0 ; k < t.df ; k++) {
+            doc += r.next();
+            int[] pp = new int[8];
+            int n = 0, pos = -1;
+            for (int d = r.next() ; d != 0 ; d = r.next()) {
+                if (n == pp.length) pp = Arrays.copyOf(pp, 2*n);
+                pp[n++] = pos += d;
+            }
+            map.put(docs.get(doc).path, Arrays.copyOf(pp, n));
+        }
+        return map;
+    }
+
+    /** Ritorna i file che contengono tutte le parole date. Le liste sono
+     * intersecate a partire dalle parole contenute in meno file.
+     * @param words  le parole
+     * @return i file che contengono tutte le parole */
+    public List<Path> and(String...words) {
+        String[] ww = words.clone();
+        Arrays.sort(ww, Comparator.comparingInt(w -> {
+            Term t = dict.get(w);
+            return t != null ? t.df : 0;
+        }));
+        int[] ids = null;
+        for (String w : ww) {
+            int[] o = docIds(w);
+            if (ids == null) { ids = o; continue; }
+            int n = 0;
+            for (int i = 0, j = 0 ; i < ids.length && j < o.length ; ) {
+                if (ids[i] < o[j]) i++;
+                else if (ids[i] > o[j]) j++;
+                else { ids[n++] = ids[i++]; j++; }
+            }
+            ids = Arrays.copyOf(ids, n);
+            if (n == 0) break;
+        }
+        return toPaths(ids != null ? ids : new int[0]);
+    }
+
+    /** Ritorna i file che contengono almeno una delle parole date.
+     * @param words  le parole
+     * @return i file che contengono almeno una delle parole */
+    public List<Path> or(String...words) {
+        int[] ids = new int[0];
+        for (String w : words) {
+            int[] o = docIds(w), u = new int[ids.length + o.length];
+            int n = 0, i = 0, j = 0;
+            while (i < ids.length || j < o.length) {
+                if (j == o.length || (i < ids.length && ids[i] < o[j])) u[n++] = ids[i++];
+                else if (i == ids.length || o[j] < ids[i]) u[n++] = o[j++];
+                else { u[n++] = ids[i++]; j++; }
+            }
+            ids = Arrays.copyOf(u, n);
+        }
+        return toPaths(ids);
+    }
+
+    /** Rilascia i riferimenti al file delle posting list mappato in memoria. */
+    @Override
+    public synchronized void close() {
+        segs = new MappedByteBuffer[0];
+        dict = new HashMap<>();
+        docs = new TreeMap<>();
+    }
+
+    /** Esegue l'azione data su ogni parola del file, con le stesse regole di
+     * {@link mp.file.Utils#wordMap(Path, String)}. */
+    static void forEachWord(Path p, String charset, Consumer<String> action)
+            throws IOException {
+        Charset cs = Charset.forName(charset);
+        if (ByteTokenizer.supports(cs)) {
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+                new ByteTokenizer(cs, null, action).count(ch);
+            }
+        } else Utils.words(p, charset, action);
+    }
+
+    /** Un file indicizzato */
+    private static class Doc {
+        Doc(int id, Path path, String charset, long size, long mtime) {
+            this.id = id;
+            this.path = path;
+            this.charset = charset;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        final int id;
+        final Path path;
+        final String charset;
+        final long size, mtime;
+    }
+
+    /** Una parola del dizionario: posizione della sua posting list e numero di
+     * file che la contengono */
+    private static class Term {
+        Term(long offset, int df) {
+            this.offset = offset;
+            this.df = df;
+        }
+
+        final long offset;
+        final int df;
+    }
+
+    /** Codifica una posting list in un array di byte che cresce */
+    private static class Encoder {
+        void add(int doc, int pos) {
+            if (doc != lastDoc) {
+                if (df > 0) put(0);          // Termina il file precedente
+                put(doc - lastDoc);
+                lastDoc = doc;
+                lastPos = -1;
+                df++;
+            }
+            put(pos - lastPos);
+            lastPos = pos;
+        }
+
+        void finish() { if (df > 0) put(0); }
+
+        void put(int v) {
+            if (len + 5 > buf.length) buf = Arrays.copyOf(buf, 2*buf.length);
+            while ((v & ~0x7F) != 0) {
+                buf[len++] = (byte)((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte)v;
+        }
+
+        byte[] buf = new byte[16];
+        int len = 0, df = 0, lastDoc = -1, lastPos = -1;
+    }
+
+    /** Legge interi a lunghezza variabile da un array o dai segmenti mappati */
+    private static class Reader {
+        Reader(MappedByteBuffer[] segs, long pos) {
+            this.segs = segs;
+            this.pos = pos;
+            arr = null;
+        }
+
+        Reader(byte[] arr) {
+            this.arr = arr;
+            segs = null;
+        }
+
+        int next() {
+            int v = 0;
+            for (int shift = 0 ; ; shift += 7) {
+                int b = arr != null ? arr[(int)pos++] :
+                        segs[(int)(pos >>> SEG_BITS)].get((int)(pos++ & SEG_MASK));
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+        }
+
+        final MappedByteBuffer[] segs;
+        final byte[] arr;
+        long pos;
+    }
+
+    /** Copia nell'encoder le occorrenze della posting list letta da r (che ha
+     * df file) relative ai file in keep. */
+    private static void copy(Reader r, int df, Map<Integer,?> keep, Encoder e) {
+        int doc = -1;
+        for (int k = 0 ; k < df ; k++) {
+            doc += r.next();
+            boolean copy = keep.containsKey(doc);
+            int pos = -1;
+            for (int d = r.next() ; d != 0 ; d = r.next()) {
+                pos += d;
+                if (copy) e.add(doc, pos);
+            }
+        }
+    }
+
+    private InvertedIndex(Path dir) { this.dir = dir; }
+
+    private int[] docIds(String word) {
+        Term t = dict.get(word);
+        if (t == null) return new int[0];
+        int[] ids = new int[t.df];
+        Reader r = new Reader(segs, t.offset);
+        int doc = -1;
+        for (int k = 0 ; k < t.df ; k++) {
+            ids[k] = doc += r.next();
+            while (r.next() != 0) ;        // Salta le posizioni
+        }
+        return ids;
+    }
+
+    private List<Path> toPaths(int[] ids) {
+        List<Path> list = new ArrayList<>();
+        for (int id : ids) list.add(docs.get(id).path);
+        return list;
+    }
+
+    /** Scrive un nuovo indice con i file dati: le occorrenze dei file già
+     * presenti sono copiate dall'indice attuale, quelle dei nuovi file sono
+     * prese da fresh. */
+    private void write(Map<Integer,Doc> all, Map<String,Encoder> fresh)
+            throws IOException {
+        SortedSet<String> words = new TreeSet<>(dict.keySet());
+        words.addAll(fresh.keySet());
+        String name = "gen-" + (generation + 1);
+        Path gen = dir.resolve(name);
+        deleteGenerations();                  // Resti di aggiornamenti falliti
+        Files.createDirectory(gen);
+        Path post = gen.resolve(POSTINGS), dic = gen.resolve(DICT);
+        try (DataOutputStream po = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(post)));
+             DataOutputStream di = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(dic)))) {
+            List<String> ww = new ArrayList<>();
+            List<Term> tt = new ArrayList<>();
+            long offset = 0;
+            for (String w : words) {
+                Encoder e = new Encoder();
+                Term old = dict.get(w);
+                if (old != null) copy(new Reader(segs, old.offset), old.df, all, e);
+                Encoder f = fresh.get(w);
+                if (f != null) {
+                    f.finish();
+                    copy(new Reader(f.buf), f.df, all, e);
+                }
+                if (e.df == 0) continue;      // Parola non più presente
+                e.finish();
+                po.write(e.buf, 0, e.len);
+                ww.add(w);
+                tt.add(new Term(offset, e.df));
+                offset += e.len;
+            }
+            di.writeInt(ww.size());
+            for (int i = 0 ; i < ww.size() ; i++) {
+                writeString(di, ww.get(i));
+                di.writeLong(tt.get(i).offset);
+                di.writeInt(tt.get(i).df);
+            }
+        }
+        Path doc = gen.resolve(DOCS);
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(doc)))) {
+            o.writeInt(nextId);
+            o.writeInt(all.size());
+            for (Doc d : all.values()) {
+                o.writeInt(d.id);
+                writeString(o, d.path.toString());
+                writeString(o, d.charset);
+                o.writeLong(d.size);
+                o.writeLong(d.mtime);
+            }
+        }
+        for (Path f : new Path[] {post, dic, doc}) sync(f);
+        Path tmp = dir.resolve(CURRENT + ".tmp");
+        Files.write(tmp, name.getBytes(StandardCharsets.UTF_8));
+        sync(tmp);
+        Files.move(tmp, dir.resolve(CURRENT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);        // Pubblica
+    }
+
+    /** Cancella le generazioni diverse da quella attuale, ignorando gli errori
+     * (ad esempio se un file è ancora mappato in memoria). */
+    private void deleteGenerations() {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "gen-*")) {
+            for (Path g : ds) {
+                String n = g.getFileName().toString();
+                if (n.equals("gen-" + generation)) continue;
+                try (DirectoryStream<Path> fs = Files.newDirectoryStream(g)) {
+                    for (Path f : fs) Files.deleteIfExists(f);
+                }
+                Files.deleteIfExists(g);
+            }
+        } catch (IOException | DirectoryIteratorException ex) { }
+    }
+
+    /** Legge la generazione attuale dell'indice, se esiste, e cancella le
+     * generazioni precedenti. */
+    private void load() throws IOException {
+        Map<Integer,Doc> docs = new TreeMap<>();
+        Map<String,Term> dict = new HashMap<>();
+        MappedByteBuffer[] segs = new MappedByteBuffer[0];
+        int nextId = 0, generation = 0;
+        Path cur = dir.resolve(CURRENT);
+        if (Files.exists(cur)) {
+            String name = new String(Files.readAllBytes(cur), StandardCharsets.UTF_8);
+            generation = Integer.parseInt(name.substring("gen-".length()));
+            Path gen = dir.resolve(name);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(gen.resolve(DOCS))))) {
+                nextId = in.readInt();
+                for (int n = in.readInt() ; n > 0 ; n--) {
+                    int id = in.readInt();
+                    docs.put(id, new Doc(id, Paths.get(readString(in)),
+                            readString(in), in.readLong(), in.readLong()));
+                }
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(gen.resolve(DICT))))) {
+                for (int n = in.readInt() ; n > 0 ; n--)
+                    dict.put(readString(in), new Term(in.readLong(), in.readInt()));
+            }
+            try (FileChannel ch = FileChannel.open(gen.resolve(POSTINGS))) {
+                long size = ch.size();
+                segs = new MappedByteBuffer[(int)((size + SEG_MASK) >>> SEG_BITS)];
+                for (int i = 0 ; i < segs.length ; i++) {
+                    long off = (long)i << SEG_BITS;
+                    segs[i] = ch.map(FileChannel.MapMode.READ_ONLY, off,
+                            Math.min(SEG_MASK + 1, size - off));
+                }
+            }
+        }
+        this.docs = docs;
+        this.dict = dict;
+        this.segs = segs;
+        this.nextId = nextId;
+        this.generation = generation;
+        deleteGenerations();
+    }
+
+    /** Scrive la stringa come lunghezza in byte a lunghezza variabile seguita
+     * dai byte UTF-8 */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        int v = b.length;
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = 0;
+        for (int shift = 0 ; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            len |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** Forza la scrittura del file sul disco */
+    private static void sync(Path f) throws IOException {
+        try (FileChannel ch = FileChannel.open(f, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+    }
+
+    private static final String DOCS = "docs.idx", DICT = "dict.idx",
+            POSTINGS = "postings.idx", CURRENT = "CURRENT";
+    private static final int SEG_BITS = 30;              // Segmenti da 1GB
+    private static final long SEG_MASK = (1L << SEG_BITS) - 1;
+
+    private final Path dir;
+    private volatile Map<Integer,Doc> docs = new TreeMap<>();  // Id -> file
+    private volatile Map<String,Term> dict = new HashMap<>();  // Dizionario
+    private volatile MappedByteBuffer[] segs = new MappedByteBuffer[0];
+    private int nextId = 0;                   // Prossimo id da assegnare
+    private int generation = 0;               // Generazione attuale, 0 se vuoto
+}
@@ -0,0 +1,82 @@
+package mp.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/** La visita parallela di un albero di directory comune a
+ * {@link mp.file.DiskScan}, {@link mp.file.CorpusCounter} e
+ * {@link mp.file.DupFinder}: un task Fork-Join per ogni directory, come in
+ * {@link mp.file.Utils#totalSizeForkJoin(Path)}, che legge la directory con un
+ * {@link DirLister} e sottomette i task delle sub-directory. Ogni thread del
+ * pool accumula i risultati in una propria struttura locale, l'accumulatore,
+ * che non richiede sincronizzazione; gli accumulatori sono ritornati alla fine
+ * per essere fusi dal chiamante. Gli errori di I/O sono ignorati. Esempio:
+ * <pre>
+ *     Collection&lt;long[]&gt; accs = ParallelWalk.walk(root, DirLister.standard(),
+ *             () -&gt; new long[1], (acc, p, a) -&gt; {
+ *                 if (a.isRegularFile()) acc[0] += a.size();
+ *                 return true;
+ *             });
+ * </pre> */
+public class ParallelWalk {
+    /** Visita gli elementi delle directory
+     * @param <A>  il tipo dell'accumulatore */
+    @FunctionalInterface
+    public interface Visitor<A> {
+        /** Visita un elemento di una directory.
+         * @param acc  l'accumulatore del thread corrente
+         * @param p  percorso dell'elemento
+         * @param a  attributi dell'elemento, letti senza seguire i link
+         *           simbolici
+         * @return se l'elemento è una directory, true se deve essere visitata;
+         * altrimenti è ignorato */
+        boolean visit(A acc, Path p, BasicFileAttributes a);
+    }
+
+    /** Visita in parallelo l'albero di radice data e ritorna gli accumulatori
+     * dei thread che hanno partecipato alla visita.
+     * @param root  percorso della directory radice
+     * @param lister  legge il contenuto delle directory
+     * @param newAcc  crea l'accumulatore di un thread
+     * @param visitor  visita ogni elemento delle directory
+     * @param <A>  il tipo dell'accumulatore
+     * @return gli accumulatori, almeno uno */
+    public static <A> Collection<A> walk(Path root, DirLister lister,
+                                         Supplier<A> newAcc, Visitor<A> visitor) {
+        Map<Thread,A> workers = new ConcurrentHashMap<>();
+        @SuppressWarnings("serial")
+        class Dir extends RecursiveAction {
+            Dir(Path d) { dir = d; }
+
+            @Override
+            protected void compute() {
+                A acc = workers.computeIfAbsent(Thread.currentThread(), t -> newAcc.get());
+                List<Dir> subs = new ArrayList<>();
+                try {
+                    lister.list(dir, (e, a) -> {
+                        if (visitor.visit(acc, e, a) && a.isDirectory())
+                            subs.add(new Dir(e));
+                    });
+                } catch (IOException ex) { }  // Ignora errori di I/O
+                ForkJoinTask.invokeAll(subs);
+            }
+
+            final Path dir;
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new Dir(root));
+        } finally { pool.shutdown(); }
+        return workers.values();
+    }
+}
@@ -0,0 +1,160 @@
+package mp.file;
+
+import java.io.*;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** La coda delle directory ancora da visitare condivisa dai thread di una
+ * visita concorrente, come {@link mp.file.Utils#totalSizeQueue(Path)}. In
+ * memoria sono mantenuti al più {@code capacity} percorsi, i successivi sono
+ * scritti in un file temporaneo e riletti a blocchi quando la memoria si
+ * svuota, così la memoria usata resta costante anche per alberi molto larghi.
+ * In memoria la coda è una pila (visita in profondità), che mantiene piccolo il
+ * numero di directory in attesa. La coda tiene anche il conto dei thread che
+ * stanno elaborando una directory presa con {@link PathQueue#take()}: un
+ * thread che trova la coda vuota si blocca (senza consumare CPU) finché un
+ * altro thread accoda una directory, oppure finché nessun thread sta più
+ * elaborando, che significa che la visita è terminata. Dopo
+ * {@link PathQueue#close()} la coda è vuota e i percorsi accodati sono
+ * ignorati. I metodi sono thread-safe. */
+public class PathQueue implements Closeable {
+    /** Crea una coda che mantiene in memoria al più capacity percorsi.
+     * @param capacity  numero massimo di percorsi in memoria
+     * @throws IllegalArgumentException se capacity non è positivo */
+    public PathQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacità non positiva: "+capacity);
+        this.capacity = capacity;
+    }
+
+    /** Accoda il percorso dato. Non ha effetto se la coda è chiusa.
+     * @param p  un percorso
+     * @throws UncheckedIOException se si verifica un errore scrivendo il file
+     * temporaneo */
+    public void put(Path p) {
+        lock.lock();
+        try {
+            if (closed) return;
+            if (mem.size() < capacity) {
+                mem.push(p);
+            } else spill(p);
+            notEmpty.signal();
+        } finally { lock.unlock(); }
+    }
+
+    /** Prende un percorso dalla coda, aspettando se la coda è vuota ma altri
+     * thread stanno ancora elaborando. Il thread che ottiene un percorso deve
+     * invocare {@link PathQueue#done()} quando ha finito di elaborarlo, dopo
+     * aver accodato gli eventuali nuovi percorsi.
+     * @return un percorso o null se la visita è terminata
+     * @throws InterruptedException se il thread è interrotto mentre aspetta
+     * @throws UncheckedIOException se si verifica un errore leggendo il file
+     * temporaneo */
+    public Path take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!closed && isEmpty() && busy > 0) notEmpty.await();
+            if (isEmpty()) {            // Nessuno può accodare altri percorsi
+                notEmpty.signalAll();
+                return null;
+            }
+            if (mem.isEmpty()) refill();
+            busy++;
+            return mem.pop();
+        } finally { lock.unlock(); }
+    }
+
+    /** Segnala che l'elaborazione di un percorso ottenuto con
+     * {@link PathQueue#take()} è terminata. */
+    public void done() {
+        lock.lock();
+        try {
+            if (--busy == 0 && isEmpty()) notEmpty.signalAll();
+        } finally { lock.unlock(); }
+    }
+
+    /** @return il numero totale di percorsi che sono stati scritti su disco */
+    public long spilled() {
+        lock.lock();
+        try {
+            return spilled;
+        } finally { lock.unlock(); }
+    }
+
+    /** Chiude la coda, scartando i percorsi in attesa, e cancella l'eventuale
+     * file temporaneo. */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            mem.clear();
+            deleteSpill();
+            notEmpty.signalAll();
+        } finally { lock.unlock(); }
+    }
+
+    private boolean isEmpty() { return mem.isEmpty() && onDisk == 0; }
+
+    private void spill(Path p) {
+        try {
+            if (out == null) {
+                fs = p.getFileSystem();
+                file = Files.createTempFile("pathqueue", ".spill");
+                out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(file)));
+            }
+            out.writeUTF(p.toString());
+            onDisk++;
+            spilled++;
+        } catch (IOException ex) { throw new UncheckedIOException(ex); }
+    }
+
+    /** Rilegge dal file temporaneo fino a metà capacità, così ci sia ancora
+     * posto in memoria per i percorsi accodati subito dopo. */
+    private void refill() {
+        try {
+            out.flush();
+            if (in == null)
+                in = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(file)));
+            for (int n = Math.max(1, capacity/2) ; n > 0 && onDisk > 0 ; n--) {
+                mem.addLast(fs.getPath(in.readUTF()));
+                onDisk--;
+            }
+            if (onDisk == 0) deleteSpill();   // Il prossimo file riparte da zero
+        } catch (IOException ex) { throw new UncheckedIOException(ex); }
+    }
+
+    private void deleteSpill() {
+        try {
+            if (in != null) in.close();
+            if (out != null) out.close();
+            if (file != null) Files.deleteIfExists(file);
+        } catch (IOException ex) {
+        } finally {
+            in = null;
+            out = null;
+            file = null;
+            onDisk = 0;
+        }
+    }
+
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Deque<Path> mem = new ArrayDeque<>();
+    private int busy = 0;                // Thread che stanno elaborando
+    private FileSystem fs;               // Per ricostruire i percorsi
+    private Path file;                   // Il file temporaneo o null
+    private DataOutputStream out;
+    private DataInputStream in;
+    private long onDisk = 0;             // Percorsi nel file non ancora riletti
+    private long spilled = 0;
+    private boolean closed = false;
+}
@@ -0,0 +1,244 @@
+package mp.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import static mp.util.Utils.toGMKB;
+
+/** Una visita in background di un albero di directory che calcola il numero
+ * totale di byte, come {@link mp.file.Utils#totalSizeForkJoin(Path)}, ma che si
+ * può osservare e interrompere. Il progresso (byte, file e directory contati
+ * finora e velocità) è pubblicato periodicamente tramite un
+ * {@link Flow.Publisher}; un ultimo {@link Progress} con
+ * {@link Progress#done} true è pubblicato alla fine, dopo la quale il publisher
+ * è chiuso. I subscriber lenti non rallentano la visita: se il loro buffer è
+ * pieno gli aggiornamenti sono scartati. L'interruzione con
+ * {@link SizeScan#cancel()} è cooperativa: i task delle directory non ancora
+ * lette terminano subito, quelle in lettura sono completate. Il risultato di
+ * una visita interrotta è parziale e {@link SizeScan#isComplete()} lo segnala;
+ * una richiesta di interruzione che arriva quando tutte le directory sono già
+ * state lette non ha effetto.
+ * Esempio:
+ * <pre>
+ *     SizeScan scan = SizeScan.start(Paths.get("/usr"));
+ *     scan.progress().subscribe(...);
+ *     ...
+ *     long size = scan.get();
+ *     if (!scan.isComplete()) ...     // Totale parziale
+ * </pre> */
+public class SizeScan {
+    /** Lo stato di una visita in un certo istante */
+    public static class Progress {
+        /** Numero di byte dei file regolari contati finora */
+        public final long bytes;
+        /** Numero di file regolari contati finora */
+        public final long files;
+        /** Numero di directory lette finora */
+        public final long dirs;
+        /** Tempo trascorso dall'inizio della visita in nanosecondi */
+        public final long elapsedNanos;
+        /** Se la visita è terminata */
+        public final boolean done;
+        /** Se l'interruzione è stata chiesta o, se la visita è terminata, se
+         * ha saltato delle directory */
+        public final boolean cancelled;
+
+        /** @return il numero medio di byte contati per secondo */
+        public double bytesPerSecond() { return perSecond(bytes); }
+
+        /** @return il numero medio di directory lette per secondo */
+        public double dirsPerSecond() { return perSecond(dirs); }
+
+        @Override
+        public String toString() {
+            return String.format("%s in %d file, %d dir, %.0f dir/s%s", toGMKB(bytes),
+                    files, dirs, dirsPerSecond(), !done ? "" : cancelled ?
+                            " (interrotta)" : " (completa)");
+        }
+
+        private Progress(long bytes, long files, long dirs, long elapsed,
+                         boolean done, boolean cancelled) {
+            this.bytes = bytes;
+            this.files = files;
+            this.dirs = dirs;
+            elapsedNanos = elapsed;
+            this.done = done;
+            this.cancelled = cancelled;
+        }
+
+        private double perSecond(long n) {
+            return elapsedNanos > 0 ? n*1e9/elapsedNanos : 0;
+        }
+    }
+
+    /** Inizia la visita dell'albero di radice data, pubblicando il progresso
+     * ogni mezzo secondo.
+     * @param root  percorso della directory radice
+     * @return la visita */
+    public static SizeScan start(Path root) {
+        return start(root, DirLister.standard(), 500);
+    }
+
+    /** Inizia la visita dell'albero di radice data leggendo le directory con
+     * il {@link DirLister} dato.
+     * @param root  percorso della directory radice
+     * @param lister  legge il contenuto delle directory
+     * @param periodMillis  intervallo di pubblicazione del progresso in
+     *                      millisecondi
+     * @return la visita
+     * @throws IllegalArgumentException se periodMillis non è positivo */
+    public static SizeScan start(Path root, DirLister lister, long periodMillis) {
+        if (periodMillis <= 0)
+            throw new IllegalArgumentException("Periodo non positivo: "+periodMillis);
+        SizeScan scan = new SizeScan(lister);
+        scan.timer.scheduleAtFixedRate(scan::publishPeriodic, periodMillis,
+                periodMillis, TimeUnit.MILLISECONDS);
+        scan.pool.execute(scan.new Root(root));
+        return scan;
+    }
+
+    /** @return il publisher del progresso della visita */
+    public Flow.Publisher<Progress> progress() { return publisher; }
+
+    /** @return lo stato attuale della visita */
+    public Progress snapshot() {
+        long end = endNanos;
+        boolean done = end != 0;
+        return new Progress(bytes.sum(), files.sum(), dirs.sum(),
+                (done ? end : System.nanoTime()) - startNanos, done,
+                done ? truncated : cancelled);
+    }
+
+    /** Chiede l'interruzione della visita. Non ha effetto se la visita è già
+     * terminata o se non ci sono più directory da leggere. */
+    public void cancel() {
+        if (endNanos == 0) cancelled = true;
+    }
+
+    /** @return true se la visita è terminata, completa o interrotta */
+    public boolean isDone() { return finished.getCount() == 0; }
+
+    /** @return true se la visita è terminata senza essere interrotta, cioè se
+     * il totale comprende l'intero albero */
+    public boolean isComplete() { return isDone() && !truncated && failure == null; }
+
+    /** Aspetta la fine della visita e ritorna il numero totale di byte, che è
+     * parziale se la visita è stata interrotta (vedi
+     * {@link SizeScan#isComplete()}).
+     * @return il numero totale di byte contati
+     * @throws InterruptedException se il thread è interrotto mentre aspetta; la
+     * visita continua
+     * @throws CompletionException se la visita è terminata per un errore */
+    public long get() throws InterruptedException {
+        finished.await();
+        if (failure != null) throw new CompletionException(failure);
+        return bytes.sum();
+    }
+
+    /** Aspetta la fine della visita al più per il tempo dato.
+     * @param timeout  il tempo massimo di attesa
+     * @param unit  l'unità di timeout
+     * @return true se la visita è terminata
+     * @throws InterruptedException se il thread è interrotto mentre aspetta */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /** Il task della radice, che alla fine pubblica l'ultimo progresso e
+     * rilascia le risorse */
+    @SuppressWarnings("serial")
+    private class Root extends RecursiveAction {
+        Root(Path d) { root = d; }
+
+        @Override
+        protected void compute() {
+            try {
+                new Dir(root).invoke();
+            } catch (RuntimeException | Error ex) {
+                failure = ex;
+            } finally {
+                synchronized (SizeScan.this) {      // Nessun progresso dopo l'ultimo
+                    timer.shutdownNow();
+                    endNanos = System.nanoTime();
+                    Progress last = snapshot();
+                    finished.countDown();
+                    publish(last);
+                    if (failure != null) {
+                        publisher.closeExceptionally(failure);
+                    } else publisher.close();
+                }
+                pool.shutdown();
+            }
+        }
+
+        final Path root;
+    }
+
+    /** Il task di una directory */
+    @SuppressWarnings("serial")
+    private class Dir extends RecursiveAction {
+        Dir(Path d) { dir = d; }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                truncated = true;                   // La directory non è letta
+                return;
+            }
+            List<Dir> subs = new ArrayList<>();
+            try {
+                lister.list(dir, (e, a) -> {
+                    if (a.isDirectory()) {
+                        subs.add(new Dir(e));
+                    } else if (a.isRegularFile()) {
+                        bytes.add(a.size());
+                        files.increment();
+                    }
+                });
+            } catch (IOException ex) { }  // Ignora errori di I/O
+            dirs.increment();
+            ForkJoinTask.invokeAll(subs);
+        }
+
+        final Path dir;
+    }
+
+    private SizeScan(DirLister lister) {
+        this.lister = lister;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "SizeScan progress");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Pubblica il progresso periodico, se la visita non è terminata */
+    private synchronized void publishPeriodic() {
+        if (endNanos == 0) publish(snapshot());
+    }
+
+    /** Pubblica senza mai bloccare: scarta l'aggiornamento per i subscriber
+     * con il buffer pieno. */
+    private void publish(Progress p) {
+        try {
+            publisher.offer(p, (s, item) -> false);
+        } catch (IllegalStateException ex) { }   // Già chiuso
+    }
+
+    private final DirLister lister;
+    private final ForkJoinPool pool = new ForkJoinPool();
+    private final ScheduledExecutorService timer;
+    private final SubmissionPublisher<Progress> publisher = new SubmissionPublisher<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final LongAdder bytes = new LongAdder(), files = new LongAdder(),
+            dirs = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = 0;           // 0 finché non è terminata
+    private volatile boolean cancelled = false;
+    private volatile boolean truncated = false;   // Se l'interruzione ha saltato directory
+    private volatile Throwable failure = null;
+}
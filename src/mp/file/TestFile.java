@@ -1,11 +1,14 @@
 package mp.file;
 
 import java.io.IOException;
-import java.lang.management.ManagementFactory;
-import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 import java.util.function.Function;
+import mp.util.Bench;
+import mp.util.CountMap;
 import mp.util.Utils;
 
 import static java.lang.System.out;
@@ -14,54 +17,57 @@ import static java.lang.System.out;
 public class TestFile {
     /** Mette alla prova un metodo che preso in input il percorso di una directory
      * ritorna la somma di tutti i byte dei file regolari contenuti nella
-     * directory. Stampa il valore ritornato, il minimo, il massimo e la media dei
-     * tempi di esecuzione relativamente alla n invocazioni. Inoltre, stampa i
-     * picchi, registrati durante il test, del numero di thread addizionali usati e
-     * della memoria addizionale usata.
+     * directory. Il metodo è eseguito alcune volte per riscaldamento e poi n
+     * volte misurando con {@link mp.util.Bench}: stampa il valore ritornato, i
+     * percentili dei tempi, il tempo di CPU e i byte allocati da tutti i thread
+     * e i picchi del numero di thread addizionali e della memoria heap
+     * addizionale. I risultati si accumulano in {@link TestFile#BENCH}. Se
+     * {@link TestFile#COLD} è true, prima di ogni esecuzione misurata prova a
+     * svuotare la cache del sistema operativo con
+     * {@link TreeGenerator#dropCaches()}.
      * @param name  nome del metodo
      * @param ts  permette di invocare il metodo
      * @param p  il percorso della directory
-     * @param n  numero di volte che il metodo è invocato */
+     * @param n  numero di volte che il metodo è invocato e misurato */
     public static void test_ts(String name, Function<Path,Long> ts, Path p, int n) {
         out.println(name+"  Directory: "+p);
-        long max = 0, min = -1, size = 0;
-        double average = 0;
-        ThreadMXBean tm = ManagementFactory.getThreadMXBean();
-        int nt = tm.getThreadCount();   // Numero attuale di thread
-        tm.resetPeakThreadCount();
-        long mem = Utils.getUsedMem();  // Memoria attualmente usata
-        Utils.resetPeakMem();
+        Bench bench = new Bench(Math.max(1, n/3), n);
+        if (COLD) bench.beforeEach(TreeGenerator::dropCaches);
         try {
-            for (int i = 0; i < n; i++) {
-                long time = System.currentTimeMillis();
-                size = ts.apply(p);
-                time = System.currentTimeMillis() - time;
-                if (time > max) max = time;
-                if (min == -1 || time < min) min = time;
-                average += time;
-            }
+            Bench.Result r = bench.run(name, () -> Utils.toGMKB(ts.apply(p)));
+            BENCH.add(r);
+            out.println(r);
         } catch (Exception ex) { out.println(ex); }
-        nt = tm.getPeakThreadCount() - nt;  // Picco numero thread addizionali
-        mem = Utils.getPeakMem() - mem;     // Picco memoria addizionale
-        average /= n;
-        out.println(String.format("Size: %s  Time (seconds): min = %.2f "+
-                        " max = %.2f ave = %.2f",
-                Utils.toGMKB(size), min/1000.0, max/1000.0, average/1000.0));
-        out.println("Picco numero thread addizionali: "+nt);
-        out.println("Picco memoria addizionale: " + Utils.toGMKB(mem));
     }
 
+    /** I risultati di {@link TestFile#test_ts} */
+    public static final List<Bench.Result> BENCH = new ArrayList<>();
+
+    /** Se {@link TestFile#test_ts} misura le visite "a freddo" */
+    public static boolean COLD = false;
+
 
-    public static void main(String[] args) {
-        Path dir = Paths.get("/usr");
-        //test_ts("totalSize", mp.file.Utils::totalSize, dir, 10);
-        //test_ts("totalSizeNaiveConcur FixedThreadPool 500", mp.file.Utils::totalSizeNaiveConcur, dir, 10);
-        //test_ts("totalSizeNaiveConcur CachedThreadPool", mp.file.Utils::totalSizeNaiveConcur, dir, 10);
-        //test_ts("totalSizeNaiveConcur WorkStealingPool", mp.file.Utils::totalSizeNaiveConcur, dir, 10);
-        //test_ts("totalSizeConcur", mp.file.Utils::totalSizeConcur, dir, 10);
-        //test_ts("totalSizeConcur2", mp.file.Utils::totalSizeConcur2, dir, 10);
-        //test_ts("totalSizeQueue", mp.file.Utils::totalSizeQueue, dir, 10);
-        test_ts("totalSizeForkJoin", mp.file.Utils::totalSizeForkJoin, dir, 10);
+    public static void main(String[] args) throws IOException {
+        //test_ByteTokenizerLarge();
+        //Path dir = Paths.get("/usr");
+        TreeGenerator gen = new TreeGenerator(42).balanced(6, 4, 10, 4096).chain(500)
+                .wide(20_000).tinyFiles(20_000, 64).sparse(4, 1L << 30).symlinkLoops(10);
+        Path dir = gen.generate();
+        out.println("Albero generato: "+gen.files()+" file, "+gen.dirs()+" dir, "+
+                Utils.toGMKB(gen.size()));
+        try {
+            //test_ts("totalSize", mp.file.Utils::totalSize, dir, 10);
+            //test_ts("totalSizeNaiveConcur FixedThreadPool 500", mp.file.Utils::totalSizeNaiveConcur, dir, 10);
+            //test_ts("totalSizeNaiveConcur CachedThreadPool", mp.file.Utils::totalSizeNaiveConcur, dir, 10);
+            //test_ts("totalSizeNaiveConcur WorkStealingPool", mp.file.Utils::totalSizeNaiveConcur, dir, 10);
+            //test_ts("totalSizeConcur", mp.file.Utils::totalSizeConcur, dir, 10);
+            //test_ts("totalSizeConcur2", mp.file.Utils::totalSizeConcur2, dir, 10);
+            //test_ts("totalSizeQueue", mp.file.Utils::totalSizeQueue, dir, 10);
+            test_ts("totalSizeForkJoin", mp.file.Utils::totalSizeForkJoin, dir, 10);
+            //test_ts("totalSizeVirtual", mp.file.Utils::totalSizeVirtual, dir, 10);
+            //test_ts("DiskUsage", mp.file.DiskUsage::size, dir, 10);
+            Bench.writeJson(BENCH, Paths.get("ts-bench.json"));
+        } finally { TreeGenerator.delete(dir); }
     }
 
 
@@ -117,13 +123,70 @@ public class TestFile {
             out.println("Digita un charset: ");
             String charset = input.nextLine();
             try {
-                Map<String,Integer> map = mp.file.Utils.wordMap(path, charset);
+                Map<String,Integer> map = WordMapCache.getDefault()
+                        .wordMap(path, charset);
                 out.println("Numero parole: "+map.size());
                 out.println(randSample(map, 100));
             } catch (IOException e) { out.println(e); }
         }
     }
 
+    /** Come {@link mp.file.TestFile#test_wordMap()} ma invece di costruire la
+     * mappa di tutte le parole stampa le 20 parole più frequenti stimate con
+     * {@link mp.file.TopWords} usando 1000 contatori. Le parole il cui
+     * piazzamento non è garantito sono marcate con '?'. */
+    private static void test_topWords() {
+        Scanner input = new Scanner(System.in);
+        while (true) {
+            out.println("Digita un percorso: ");
+            String pathname = input.nextLine();
+            if (pathname.isEmpty()) break;
+            Path path = Paths.get(pathname).toAbsolutePath();
+            out.println("Digita un charset: ");
+            String charset = input.nextLine();
+            try {
+                out.println(TopWords.top(path, charset, 20, 1000));
+            } catch (IOException e) { out.println(e); }
+        }
+    }
+
+    /** Conta con un {@link ByteTokenizer} le parole di un testo di circa 256MB
+     * letto da un canale, molto più grande del buffer di lettura, e controlla
+     * che i conteggi siano esatti e che il buffer non cresca: solamente una
+     * parola più lunga del buffer può farlo crescere. */
+    private static void test_ByteTokenizerLarge() throws IOException {
+        byte[] line = "alfa beta gamma delta\n".getBytes(StandardCharsets.UTF_8);
+        long lines = (256L << 20)/line.length;
+        ReadableByteChannel ch = new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                if (sent == lines) return -1;
+                int n = 0;
+                while (sent < lines && dst.remaining() >= line.length) {
+                    dst.put(line);
+                    n += line.length;
+                    sent++;
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() { return true; }
+
+            @Override
+            public void close() { }
+
+            long sent = 0;
+        };
+        ByteTokenizer t = new ByteTokenizer(StandardCharsets.UTF_8);
+        t.count(ch);
+        CountMap map = t.toCountMap();
+        boolean ok = map.size() == 4 && map.count("alfa") == lines &&
+                map.count("delta") == lines && t.bufferCapacity() == 1 << 16;
+        out.println((ok ? "OK" : "ERRORE")+"  parole "+map+"  buffer "+
+                t.bufferCapacity());
+    }
+
     /** Ritorna una mappa che contiene un campione random della mappa data.
      * @param map  la mappa da campionare
      * @param expectedSize  numero atteso di chiavi nella mappa campione
@@ -0,0 +1,166 @@
+package mp.file;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/** Un oggetto {@link TopWords} stima le parole più frequenti di un flusso di
+ * parole usando una quantità di memoria fissa. Implementa l'algoritmo
+ * Space-Saving: mantiene al più {@code capacity} contatori, ognuno relativo a
+ * una parola, in un min-heap ordinato per conteggio. Quando arriva una parola
+ * senza contatore e i contatori sono esauriti, il contatore con il conteggio
+ * minimo è riassegnato alla nuova parola e il suo vecchio conteggio diventa
+ * l'errore massimo della stima. Per ogni parola monitorata la frequenza vera è
+ * compresa tra {@code count - error} e {@code count}, e ogni parola con più di
+ * {@code total()/capacity} occorrenze è sicuramente monitorata. */
+public class TopWords {
+    /** Una parola con il suo conteggio stimato */
+    public static class Entry {
+        /** La parola */
+        public final String word;
+        /** Il conteggio stimato, mai minore della frequenza vera */
+        public final long count;
+        /** L'errore massimo della stima: la frequenza vera è almeno
+         * {@code count - error} */
+        public final long error;
+        /** true se la parola è certamente tra le k più frequenti */
+        public final boolean guaranteed;
+
+        @Override
+        public String toString() {
+            return word+"="+count+(error > 0 ? "(-"+error+")" : "")+
+                    (guaranteed ? "" : "?");
+        }
+
+        private Entry(String w, long c, long e, boolean g) {
+            word = w;
+            count = c;
+            error = e;
+            guaranteed = g;
+        }
+    }
+
+    /** Ritorna le stime delle k parole più frequenti del file specificato. Le
+     * parole sono quelle di {@link mp.file.Utils#wordMap(Path, String)} ma il
+     * file è letto in streaming e la memoria usata dipende solamente da
+     * capacity, non dal numero di parole distinte.
+     * @param path  il percorso del file
+     * @param charset  il charset per decodificare i caratteri
+     * @param k  numero di parole da ritornare
+     * @param capacity  numero di contatori, almeno k (più è grande più le stime
+     *                  sono precise)
+     * @return le k parole più frequenti in ordine di conteggio decrescente
+     * @throws java.io.IOException se si verifica un errore accedendo al file */
+    public static List<Entry> top(Path path, String charset, int k, int capacity)
+            throws IOException {
+        if (capacity < k)
+            throw new IllegalArgumentException("Capacità minore di k");
+        TopWords tw = new TopWords(capacity);
+        Utils.words(path, charset, tw::add);
+        return tw.top(k);
+    }
+
+    /** Crea un oggetto per stimare le parole più frequenti con il numero di
+     * contatori specificato.
+     * @param capacity  numero massimo di contatori
+     * @throws IllegalArgumentException se capacity non è positivo */
+    public TopWords(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacità non positiva");
+        heap = new Counter[capacity];
+        map = new HashMap<>(2*capacity);
+    }
+
+    /** Conta un'occorrenza della parola data.
+     * @param w  una parola */
+    public void add(String w) {
+        total++;
+        Counter c = map.get(w);
+        if (c != null) {                   // Parola già monitorata
+            c.count++;
+            siftDown(c.pos);
+        } else if (size < heap.length) {   // C'è ancora un contatore libero
+            c = new Counter(w);
+            map.put(w, c);
+            heap[size] = c;
+            c.pos = size++;
+            siftUp(c.pos);
+        } else {                           // Riusa il contatore minimo
+            c = heap[0];
+            map.remove(c.word);
+            c.word = w;
+            c.error = c.count;
+            c.count++;
+            map.put(w, c);
+            siftDown(0);
+        }
+    }
+
+    /** @return il numero totale di occorrenze contate */
+    public long total() { return total; }
+
+    /** Ritorna le stime delle k parole più frequenti in ordine di conteggio
+     * decrescente. Una parola è marcata come garantita se la sua frequenza
+     * minima supera il conteggio stimato di ogni parola esclusa.
+     * @param k  numero di parole da ritornare
+     * @return le stime delle k parole più frequenti */
+    public List<Entry> top(int k) {
+        Counter[] cc = Arrays.copyOf(heap, size);
+        Arrays.sort(cc, (a, b) -> Long.compare(b.count, a.count));
+        int n = Math.min(k, cc.length);
+        long next = n < cc.length ? cc[n].count : (size < heap.length ? 0 :
+                heap[0].count);   // Limite superiore per le parole escluse
+        List<Entry> top = new ArrayList<>();
+        for (int i = 0 ; i < n ; i++) {
+            Counter c = cc[i];
+            top.add(new Entry(c.word, c.count, c.error, c.count - c.error >= next));
+        }
+        return top;
+    }
+
+    /** Un contatore nel min-heap */
+    private static class Counter {
+        Counter(String w) {
+            word = w;
+            count = 1;
+        }
+
+        String word;
+        long count, error;
+        int pos;           // Posizione nel heap
+    }
+
+    private void siftUp(int i) {
+        Counter c = heap[i];
+        while (i > 0) {
+            int p = (i - 1)/2;
+            if (heap[p].count <= c.count) break;
+            place(heap[p], i);
+            i = p;
+        }
+        place(c, i);
+    }
+
+    private void siftDown(int i) {
+        Counter c = heap[i];
+        while (true) {
+            int l = 2*i + 1;
+            if (l >= size) break;
+            int m = (l + 1 < size && heap[l + 1].count < heap[l].count) ? l + 1 : l;
+            if (c.count <= heap[m].count) break;
+            place(heap[m], i);
+            i = m;
+        }
+        place(c, i);
+    }
+
+    private void place(Counter c, int i) {
+        heap[i] = c;
+        c.pos = i;
+    }
+
+    private final Counter[] heap;              // Min-heap dei contatori
+    private final Map<String,Counter> map;     // Parola -> contatore
+    private int size = 0;                      // Numero contatori usati
+    private long total = 0;                    // Numero occorrenze contate
+}
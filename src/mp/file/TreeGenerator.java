@@ -0,0 +1,240 @@
+package mp.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Genera alberi di directory sintetici e riproducibili per misurare le visite
+ * di {@link mp.file.Utils} e delle altre classi di {@link mp.file} su input
+ * identici e controllabili, invece che su una directory di sistema come
+ * {@code /usr}, che cambia da macchina a macchina. L'albero è determinato dal
+ * seme e dalle forme richieste, ognuna generata in una propria sub-directory
+ * della radice:
+ * <ul>
+ *     <li>{@code balanced}: albero con fan-out e profondità dati;</li>
+ *     <li>{@code chain}: catena di directory molto profonda;</li>
+ *     <li>{@code wide}: una directory con moltissimi elementi;</li>
+ *     <li>{@code tiny}: moltissimi file piccoli;</li>
+ *     <li>{@code sparse}: file grandi ma sparsi, che occupano poco disco;</li>
+ *     <li>{@code loops}: link simbolici verso gli antenati, che le visite che
+ *     non seguono i link devono ignorare.</li>
+ * </ul>
+ * Il contenuto dei file è pseudo-casuale. Il generatore conta i file regolari
+ * e i loro byte, così si può verificare il risultato delle visite. Il metodo
+ * {@link TreeGenerator#dropCaches()} prova a svuotare la cache delle pagine
+ * del sistema operativo, per misurare le visite "a freddo". Esempio:
+ * <pre>
+ *     TreeGenerator gen = new TreeGenerator(42).balanced(8, 4, 10, 4096)
+ *             .chain(1000).wide(100_000).tinyFiles(50_000, 64);
+ *     Path root = gen.generate();
+ *     assert Utils.totalSize(root) == gen.size();
+ * </pre> */
+public class TreeGenerator {
+    /** Crea un generatore con il seme dato e nessuna forma.
+     * @param seed  il seme */
+    public TreeGenerator(long seed) { this.seed = seed; }
+
+    /** Aggiunge un albero bilanciato.
+     * @param fanOut  numero di sub-directory di ogni directory
+     * @param depth  numero di livelli sotto la radice dell'albero
+     * @param files  numero di file in ogni directory
+     * @param maxSize  dimensione massima dei file
+     * @return questo generatore */
+    public TreeGenerator balanced(int fanOut, int depth, int files, int maxSize) {
+        shapes.add((dir, rnd) -> balanced(dir, rnd, fanOut, depth, files, maxSize));
+        return this;
+    }
+
+    /** Aggiunge una catena di directory annidate, con un file piccolo ad ogni
+     * livello.
+     * @param depth  la profondità della catena
+     * @return questo generatore */
+    public TreeGenerator chain(int depth) {
+        shapes.add((dir, rnd) -> {
+            for (int i = 0 ; i < depth ; i++) {
+                dir = Files.createDirectory(dir.resolve("c"));
+                dirs++;
+                file(dir.resolve("f"), rnd.nextInt(128), rnd);
+            }
+        });
+        return this;
+    }
+
+    /** Aggiunge una directory con il numero di elementi dato: un decimo sono
+     * directory vuote e gli altri file vuoti.
+     * @param entries  numero di elementi
+     * @return questo generatore */
+    public TreeGenerator wide(int entries) {
+        shapes.add((dir, rnd) -> {
+            for (int i = 0 ; i < entries ; i++) {
+                if (rnd.nextInt(10) == 0) {
+                    Files.createDirectory(dir.resolve("d"+i));
+                    dirs++;
+                } else file(dir.resolve("f"+i), 0, rnd);
+            }
+        });
+        return this;
+    }
+
+    /** Aggiunge molti file piccoli, al più mille per directory.
+     * @param n  numero di file
+     * @param maxSize  dimensione massima dei file
+     * @return questo generatore */
+    public TreeGenerator tinyFiles(int n, int maxSize) {
+        shapes.add((dir, rnd) -> {
+            Path d = dir;
+            for (int i = 0 ; i < n ; i++) {
+                if (i % 1000 == 0) {
+                    d = Files.createDirectory(dir.resolve("t"+i/1000));
+                    dirs++;
+                }
+                file(d.resolve("f"+i), rnd.nextInt(maxSize + 1), rnd);
+            }
+        });
+        return this;
+    }
+
+    /** Aggiunge file sparsi: ognuno ha la dimensione data ma contiene un solo
+     * byte scritto, alla fine, così sul disco occupa pochissimo se il file
+     * system supporta i file sparsi.
+     * @param n  numero di file
+     * @param size  dimensione di ogni file
+     * @return questo generatore */
+    public TreeGenerator sparse(int n, long size) {
+        shapes.add((dir, rnd) -> {
+            for (int i = 0 ; i < n ; i++) {
+                try (FileChannel ch = FileChannel.open(dir.resolve("s"+i),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                        StandardOpenOption.SPARSE)) {
+                    if (size > 0) ch.write(ByteBuffer.wrap(new byte[] {1}), size - 1);
+                }
+                files++;
+                bytes += size;
+            }
+        });
+        return this;
+    }
+
+    /** Aggiunge una catena di directory dove ogni directory contiene un link
+     * simbolico alla radice della catena, uno al genitore e uno a sé stessa.
+     * Se il file system non supporta i link simbolici, sono create solamente
+     * le directory.
+     * @param depth  profondità della catena
+     * @return questo generatore */
+    public TreeGenerator symlinkLoops(int depth) {
+        shapes.add((dir, rnd) -> {
+            Path d = dir;
+            for (int i = 0 ; i < depth ; i++) {
+                d = Files.createDirectory(d.resolve("l"+i));
+                dirs++;
+                try {
+                    Files.createSymbolicLink(d.resolve("root"), dir);
+                    Files.createSymbolicLink(d.resolve("up"), Paths.get(".."));
+                    Files.createSymbolicLink(d.resolve("self"), Paths.get("."));
+                } catch (IOException | UnsupportedOperationException ex) { }
+            }
+        });
+        return this;
+    }
+
+    /** Genera l'albero in una nuova directory temporanea di sistema.
+     * @return la radice dell'albero
+     * @throws IOException se si verifica un errore creando l'albero */
+    public Path generate() throws IOException {
+        return generate(Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    /** Genera l'albero in una nuova directory contenuta in quella data. Le
+     * forme sono generate nell'ordine in cui sono state aggiunte, con un unico
+     * generatore pseudo-casuale inizializzato con il seme, quindi due
+     * invocazioni generano alberi identici.
+     * @param parent  la directory in cui creare la radice
+     * @return la radice dell'albero
+     * @throws IOException se si verifica un errore creando l'albero */
+    public Path generate(Path parent) throws IOException {
+        Random rnd = new Random(seed);
+        files = bytes = 0;
+        dirs = 1;
+        Path root = Files.createTempDirectory(parent, "tree"+seed+"-");
+        for (int i = 0 ; i < shapes.size() ; i++) {
+            Path d = Files.createDirectory(root.resolve("shape"+i));
+            dirs++;
+            shapes.get(i).create(d, rnd);
+        }
+        return root;
+    }
+
+    /** @return il numero di byte dei file regolari dell'ultimo albero
+     * generato, cioè il risultato atteso di
+     * {@link mp.file.Utils#totalSize(Path)} */
+    public long size() { return bytes; }
+
+    /** @return il numero di file regolari dell'ultimo albero generato */
+    public long files() { return files; }
+
+    /** @return il numero di directory dell'ultimo albero generato, radice
+     * inclusa */
+    public long dirs() { return dirs; }
+
+    /** Cancella l'albero di radice data, senza seguire i link simbolici.
+     * @param root  la radice dell'albero
+     * @throws IOException se si verifica un errore cancellando */
+    public static void delete(Path root) throws IOException {
+        try (Stream<Path> s = Files.walk(root)) {
+            for (Path p : s.sorted(Comparator.reverseOrder()).toArray(Path[]::new))
+                Files.delete(p);
+        }
+    }
+
+    /** Prova a svuotare la cache delle pagine, delle directory e degli inode
+     * del sistema operativo, così che la prossima visita legga dal disco.
+     * Funziona solamente su Linux e con i permessi di root.
+     * @return true se la cache è stata svuotata */
+    public static boolean dropCaches() {
+        try {
+            new ProcessBuilder("sync").inheritIO().start().waitFor();
+            Files.write(Paths.get("/proc/sys/vm/drop_caches"), "3\n".getBytes());
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Una forma da generare in una directory */
+    private interface Shape {
+        void create(Path dir, Random rnd) throws IOException;
+    }
+
+    private void balanced(Path dir, Random rnd, int fanOut, int depth, int files,
+                          int maxSize) throws IOException {
+        for (int i = 0 ; i < files ; i++)
+            file(dir.resolve("f"+i), rnd.nextInt(maxSize + 1), rnd);
+        if (depth > 0)
+            for (int i = 0 ; i < fanOut ; i++) {
+                Path d = Files.createDirectory(dir.resolve("d"+i));
+                dirs++;
+                balanced(d, rnd, fanOut, depth - 1, files, maxSize);
+            }
+    }
+
+    private void file(Path p, int size, Random rnd) throws IOException {
+        byte[] data = new byte[size];
+        rnd.nextBytes(data);
+        Files.write(p, data, StandardOpenOption.CREATE_NEW);
+        files++;
+        bytes += size;
+    }
+
+    private final long seed;
+    private final List<Shape> shapes = new ArrayList<>();
+    private long files, bytes, dirs;
+}
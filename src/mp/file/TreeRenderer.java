@@ -0,0 +1,119 @@
+package mp.file;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static mp.util.Utils.toGMKB;
+
+/** Scrive la rappresentazione di un albero di directory e file, nel formato di
+ * {@link mp.file.Utils#fileTreeToString(Path)}, direttamente su un
+ * {@link Appendable} (ad esempio un {@link java.io.Writer} o
+ * {@link System#out}) man mano che l'albero è visitato. Ogni elemento è letto
+ * e scritto una sola volta e il prefisso delle linee è una pila di caratteri
+ * che cresce e decresce con la profondità, quindi il tempo è lineare nel
+ * numero di elementi e la memoria dipende solamente dalla profondità, non dal
+ * numero di elementi. Come in {@link mp.file.Utils#fileTreeToString(Path)}
+ * le dimensioni dei file sono scritte in byte, oppure con
+ * {@link mp.util.Utils#toGMKB(long)} se richiesto. Si possono limitare la
+ * profondità e il numero di elementi mostrati per directory. Le directory nascoste non sono
+ * visitate e i link simbolici non sono seguiti. Esempio:
+ * <pre>
+ *     new TreeRenderer().maxDepth(3).maxEntries(20).humanSizes(true)
+ *             .render(root, System.out);
+ * </pre> */
+public class TreeRenderer {
+    /** Imposta la profondità massima: il contenuto delle directory a quella
+     * profondità non è mostrato. La radice ha profondità 0.
+     * @param depth  la profondità massima
+     * @return questo renderer
+     * @throws IllegalArgumentException se depth è negativo */
+    public TreeRenderer maxDepth(int depth) {
+        if (depth < 0) throw new IllegalArgumentException("Profondità negativa: "+depth);
+        maxDepth = depth;
+        return this;
+    }
+
+    /** Imposta il numero massimo di elementi mostrati per ogni directory; al
+     * posto degli altri è scritto solamente il loro numero.
+     * @param n  il numero massimo di elementi per directory
+     * @return questo renderer
+     * @throws IllegalArgumentException se n è negativo */
+    public TreeRenderer maxEntries(int n) {
+        if (n < 0) throw new IllegalArgumentException("Numero negativo: "+n);
+        maxEntries = n;
+        return this;
+    }
+
+    /** Imposta se scrivere le dimensioni dei file in forma leggibile, con
+     * {@link mp.util.Utils#toGMKB(long)}, invece che in byte.
+     * @param human  true per le dimensioni in forma leggibile
+     * @return questo renderer */
+    public TreeRenderer humanSizes(boolean human) {
+        humanSizes = human;
+        return this;
+    }
+
+    /** Imposta come leggere il contenuto delle directory.
+     * @param lister  legge il contenuto delle directory
+     * @return questo renderer */
+    public TreeRenderer lister(DirLister lister) {
+        this.lister = lister;
+        return this;
+    }
+
+    /** Scrive su out la rappresentazione dell'albero di radice data.
+     * @param root  percorso della radice
+     * @param out  dove scrivere
+     * @throws IOException se si verifica un errore accedendo ai file/dir o
+     * scrivendo su out */
+    public void render(Path root, Appendable out) throws IOException {
+        BasicFileAttributes a = Files.readAttributes(root, BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+        try {
+            entry(root, a, 0, new StringBuilder(), out);
+        } catch (UncheckedIOException ex) { throw ex.getCause(); }
+    }
+
+    private void entry(Path p, BasicFileAttributes a, int depth, StringBuilder pre,
+                       Appendable out) throws IOException {
+        if (a.isDirectory() && Files.isHidden(p)) return;
+        Path name = p.getFileName();
+        out.append(pre).append(depth > 0 ? "---" : "")
+                .append(name != null ? name.toString() : p.toString());
+        if (!a.isDirectory()) {
+            long size = a.size();
+            out.append(' ').append(!humanSizes ? Long.toString(size) :
+                    size > 0 ? toGMKB(size) : "0B").append('\n');
+            return;
+        }
+        if (depth == maxDepth) {
+            out.append(" ...\n");         // Contenuto non mostrato
+            return;
+        }
+        out.append('\n');
+        int len = pre.length();
+        pre.append("    |");
+        long[] n = {0};
+        lister.list(p, (e, ea) -> {       // Visita durante la lettura, senza
+            if (n[0]++ < maxEntries) {     // memorizzare gli elementi
+                try {
+                    entry(e, ea, depth + 1, pre, out);
+                } catch (IOException ex) { throw new UncheckedIOException(ex); }
+            }
+        });
+        if (n[0] > maxEntries)
+            out.append(pre).append("---... altri ")
+                    .append(Long.toString(n[0] - maxEntries)).append(" elementi\n");
+        pre.setLength(len);
+        out.append(pre).append('\n');
+    }
+
+    private int maxDepth = Integer.MAX_VALUE;
+    private int maxEntries = Integer.MAX_VALUE;
+    private boolean humanSizes = false;
+    private DirLister lister = DirLister.standard();
+}
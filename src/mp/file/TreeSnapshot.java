@@ -0,0 +1,416 @@
+package mp.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/** Un'istantanea di un albero di directory salvata in un file binario compatto
+ * che è letto tramite memory mapping. Per ogni elemento l'istantanea registra
+ * il nome, il tipo, la data di ultima modifica e la dimensione; per ogni
+ * directory anche il numero totale di byte dei file regolari del sotto-albero
+ * e un hash aggregato di tutto il sotto-albero (nomi, tipi, dimensioni e date
+ * dei discendenti). Gli elementi sono scritti in pre-ordine, con i figli di
+ * ogni directory ordinati per nome. Il nome di un elemento è codificato come
+ * differenza rispetto al fratello precedente (numero di byte in comune più il
+ * resto) e la data come differenza rispetto a quella della directory
+ * genitrice, con interi a lunghezza variabile. Ogni directory registra anche
+ * la posizione della fine del suo sotto-albero, così
+ * {@link TreeSnapshot#diff} può saltare senza leggerli i sotto-alberi che
+ * hanno lo stesso hash in entrambe le istantanee: il tempo del confronto
+ * dipende da quanto è cambiato, non dalla dimensione dell'albero. Come per
+ * {@link mp.file.Utils#totalSize(Path)} i link simbolici non sono seguiti e gli
+ * errori di I/O sono ignorati. Esempio:
+ * <pre>
+ *     TreeSnapshot.write(Paths.get("/data"), Paths.get("oggi.snap"));
+ *     try (TreeSnapshot ieri = TreeSnapshot.open(Paths.get("ieri.snap"));
+ *          TreeSnapshot oggi = TreeSnapshot.open(Paths.get("oggi.snap"))) {
+ *         TreeSnapshot.diff(ieri, oggi, System.out::println);
+ *     }
+ * </pre> */
+public class TreeSnapshot implements Closeable {
+    /** Una differenza tra due istantanee */
+    public static class Change {
+        /** Il tipo di differenza */
+        public enum Kind { ADDED, REMOVED, CHANGED }
+
+        public final Kind kind;
+        /** Il percorso relativo alla radice dell'albero */
+        public final Path path;
+        /** Se l'elemento è una directory */
+        public final boolean dir;
+        /** Dimensione (totale del sotto-albero per le directory) nella prima
+         * istantanea, 0 se l'elemento è stato aggiunto */
+        public final long oldSize;
+        /** Dimensione (totale del sotto-albero per le directory) nella seconda
+         * istantanea, 0 se l'elemento è stato rimosso */
+        public final long newSize;
+
+        /** @return di quanti byte è cresciuto l'elemento */
+        public long delta() { return newSize - oldSize; }
+
+        @Override
+        public String toString() {
+            String s = (dir ? path+"/" : path.toString());
+            switch (kind) {
+                case ADDED: return "+ "+s+" "+newSize;
+                case REMOVED: return "- "+s+" "+oldSize;
+                default: return "~ "+s+" "+oldSize+" -> "+newSize+" ("+
+                        (delta() >= 0 ? "+" : "")+delta()+")";
+            }
+        }
+
+        private Change(Kind k, Path p, boolean dir, long oldSize, long newSize) {
+            kind = k;
+            path = p;
+            this.dir = dir;
+            this.oldSize = oldSize;
+            this.newSize = newSize;
+        }
+    }
+
+    /** Visita l'albero di radice data e ne scrive l'istantanea nel file dato.
+     * @param root  percorso della directory radice
+     * @param file  il file dell'istantanea, che è sovrascritto
+     * @throws IOException se si verifica un errore scrivendo il file */
+    public static void write(Path root, Path file) throws IOException {
+        write(root, file, DirLister.standard());
+    }
+
+    /** Come {@link TreeSnapshot#write(Path, Path)} ma legge le directory con il
+     * {@link DirLister} dato.
+     * @param root  percorso della directory radice
+     * @param file  il file dell'istantanea, che è sovrascritto
+     * @param lister  legge il contenuto delle directory
+     * @throws IOException se si verifica un errore scrivendo il file */
+    public static void write(Path root, Path file, DirLister lister) throws IOException {
+        BasicFileAttributes a = Files.readAttributes(root, BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+        byte[] rootName = root.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer w = new Writer(ch, lister);
+            w.buf.putInt(MAGIC).putInt(VERSION);
+            long count = w.reserve(8);
+            w.putVarLong(rootName.length);
+            w.putBytes(rootName, 0, rootName.length);
+            w.dir(root, NO_NAME, NO_NAME, a.lastModifiedTime().toMillis(), 0);
+            w.patchLong(count, w.entries);
+            w.flush();
+        }
+    }
+
+    /** Apre l'istantanea salvata nel file dato.
+     * @param file  il file dell'istantanea
+     * @return l'istantanea
+     * @throws IOException se si verifica un errore leggendo il file o se il
+     * file non è un'istantanea */
+    public static TreeSnapshot open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file)) {
+            long size = ch.size();
+            MappedByteBuffer[] segs = new MappedByteBuffer[(int)((size + SEG_MASK) >>> SEG_BITS)];
+            for (int i = 0 ; i < segs.length ; i++) {
+                long off = (long)i << SEG_BITS;
+                segs[i] = ch.map(FileChannel.MapMode.READ_ONLY, off,
+                        Math.min(SEG_MASK + 1, size - off));
+            }
+            return new TreeSnapshot(segs, size);
+        }
+    }
+
+    /** Confronta due istantanee dello stesso albero e passa ad action le
+     * differenze, in pre-ordine. Un elemento aggiunto o rimosso è riportato una
+     * sola volta, anche se è una directory. Una directory il cui sotto-albero è
+     * cambiato è riportata come {@link Change.Kind#CHANGED} prima delle
+     * differenze dei suoi discendenti; i sotto-alberi invariati sono saltati.
+     * @param from  l'istantanea precedente
+     * @param to  l'istantanea successiva
+     * @param action  l'azione per ogni differenza */
+    public static void diff(TreeSnapshot from, TreeSnapshot to, Consumer<Change> action) {
+        Cursor a = new Cursor(from.segs, from.start), b = new Cursor(to.segs, to.start);
+        Entry ra = a.read(NO_NAME, 0), rb = b.read(NO_NAME, 0);
+        if (ra.hash == rb.hash) return;
+        action.accept(new Change(Change.Kind.CHANGED, to.root.getFileSystem().getPath(""),
+                true, ra.size, rb.size));
+        diff(a, ra, b, rb, "", to.root.getFileSystem(), action);
+    }
+
+    /** @return il percorso assoluto della radice dell'albero */
+    public Path root() { return root; }
+
+    /** @return il numero totale di byte dei file regolari dell'albero */
+    public long size() { return new Cursor(segs, start).read(NO_NAME, 0).size; }
+
+    /** @return il numero di elementi dell'albero, esclusa la radice */
+    public long entries() { return entries; }
+
+    /** @return la dimensione in byte del file dell'istantanea */
+    public long fileSize() { return fileSize; }
+
+    /** Rilascia l'istantanea. I segmenti mappati sono liberati dal garbage
+     * collector. */
+    @Override
+    public void close() { segs = new MappedByteBuffer[0]; }
+
+    /** Confronta i figli delle directory ra e rb, che hanno percorso rel. */
+    private static void diff(Cursor a, Entry ra, Cursor b, Entry rb, String rel,
+                             FileSystem fs, Consumer<Change> action) {
+        byte[] pa = NO_NAME, pb = NO_NAME;
+        Entry ea = a.pos < ra.end ? a.read(pa, ra.mtime) : null;
+        Entry eb = b.pos < rb.end ? b.read(pb, rb.mtime) : null;
+        while (ea != null || eb != null) {
+            int cmp = ea == null ? 1 : eb == null ? -1 : Arrays.compareUnsigned(ea.name, eb.name);
+            boolean nextA = cmp <= 0, nextB = cmp >= 0;
+            if (cmp < 0) {
+                action.accept(ea.change(Change.Kind.REMOVED, rel, fs, ea.size, 0));
+            } else if (cmp > 0) {
+                action.accept(eb.change(Change.Kind.ADDED, rel, fs, 0, eb.size));
+            } else if (ea.type != eb.type) {
+                action.accept(ea.change(Change.Kind.REMOVED, rel, fs, ea.size, 0));
+                action.accept(eb.change(Change.Kind.ADDED, rel, fs, 0, eb.size));
+            } else if (ea.type == DIR) {
+                if (ea.hash != eb.hash) {
+                    action.accept(eb.change(Change.Kind.CHANGED, rel, fs, ea.size, eb.size));
+                    diff(a, ea, b, eb, rel.isEmpty() ? ea.string() : rel+"/"+ea.string(),
+                            fs, action);
+                }
+            } else if (ea.size != eb.size || ea.mtime != eb.mtime)
+                action.accept(eb.change(Change.Kind.CHANGED, rel, fs, ea.size, eb.size));
+            if (nextA) {
+                a.pos = ea.end;              // Salta l'eventuale sotto-albero
+                pa = ea.name;
+                ea = a.pos < ra.end ? a.read(pa, ra.mtime) : null;
+            }
+            if (nextB) {
+                b.pos = eb.end;
+                pb = eb.name;
+                eb = b.pos < rb.end ? b.read(pb, rb.mtime) : null;
+            }
+        }
+    }
+
+    /** Un elemento letto da un'istantanea */
+    private static class Entry {
+        Change change(Change.Kind k, String rel, FileSystem fs, long oldSize,
+                      long newSize) {
+            String s = rel.isEmpty() ? string() : rel+"/"+string();
+            return new Change(k, fs.getPath(s), type == DIR, oldSize, newSize);
+        }
+
+        String string() { return new String(name, StandardCharsets.UTF_8); }
+
+        byte[] name;
+        int type;
+        long mtime, size;
+        long hash;             // Solo per le directory
+        long end;              // Posizione dopo l'elemento e il sotto-albero
+    }
+
+    /** Legge un'istantanea a partire da una posizione */
+    private static class Cursor {
+        Cursor(MappedByteBuffer[] segs, long pos) {
+            this.segs = segs;
+            this.pos = pos;
+        }
+
+        /** Legge l'elemento in pos, dato il nome del fratello precedente e la
+         * data della directory genitrice. Dopo, pos è all'inizio del primo
+         * figlio se l'elemento è una directory. */
+        Entry read(byte[] prev, long parentMtime) {
+            Entry e = new Entry();
+            int shared = (int)varLong(), len = (int)varLong();
+            e.name = Arrays.copyOf(prev, shared + len);
+            for (int i = 0 ; i < len ; i++) e.name[shared + i] = get();
+            e.type = get();
+            long z = varLong();
+            e.mtime = parentMtime + ((z >>> 1) ^ -(z & 1));
+            if (e.type == DIR) {
+                e.size = fixedLong();
+                e.hash = fixedLong();
+                e.end = fixedLong();
+            } else {
+                e.size = varLong();
+                e.end = pos;
+            }
+            return e;
+        }
+
+        byte get() {
+            return segs[(int)(pos >>> SEG_BITS)].get((int)(pos++ & SEG_MASK));
+        }
+
+        long varLong() {
+            long v = 0;
+            for (int shift = 0 ; ; shift += 7) {
+                int b = get();
+                v |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+        }
+
+        long fixedLong() {
+            long v = 0;
+            for (int i = 0 ; i < 8 ; i++) v = (v << 8) | (get() & 0xFF);
+            return v;
+        }
+
+        final MappedByteBuffer[] segs;
+        long pos;
+    }
+
+    /** Scrive un'istantanea in pre-ordine con un buffer; i campi delle
+     * directory noti solo dopo il sotto-albero sono riservati e poi riscritti */
+    private static class Writer {
+        Writer(FileChannel ch, DirLister lister) {
+            this.ch = ch;
+            this.lister = lister;
+        }
+
+        /** Scrive la directory e il suo sotto-albero; ritorna {totale, hash} */
+        long[] dir(Path dir, byte[] name, byte[] prev, long mtime, long parentMtime)
+                throws IOException {
+            header(name, prev, DIR, mtime - parentMtime);
+            long fixed = reserve(24);        // Totale, hash e fine
+            List<Path> paths = new ArrayList<>();
+            List<BasicFileAttributes> attrs = new ArrayList<>();
+            List<byte[]> names = new ArrayList<>();
+            try {
+                lister.list(dir, (e, a) -> {
+                    paths.add(e);
+                    attrs.add(a);
+                    names.add(e.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                });
+            } catch (IOException ex) { }   // Ignora errori di I/O
+            Integer[] order = new Integer[names.size()];
+            for (int i = 0 ; i < order.length ; i++) order[i] = i;
+            Arrays.sort(order, (i, j) -> Arrays.compareUnsigned(names.get(i), names.get(j)));
+            long total = 0, hash = 0x5bd1e995L;
+            byte[] last = NO_NAME;
+            for (int i : order) {
+                BasicFileAttributes a = attrs.get(i);
+                byte[] n = names.get(i);
+                long m = a.lastModifiedTime().toMillis(), eh;
+                if (a.isDirectory()) {
+                    long[] r = dir(paths.get(i), n, last, m, mtime);
+                    total += r[0];
+                    eh = mix(r[1] ^ entryHash(n, DIR, 0, 0));
+                } else {
+                    int type = a.isRegularFile() ? FILE : OTHER;
+                    header(n, last, type, m - mtime);
+                    putVarLong(a.size());
+                    if (type == FILE) total += a.size();
+                    eh = entryHash(n, type, a.size(), m);
+                }
+                hash = mix(hash*0x9E3779B97F4A7C15L + eh);
+                last = n;
+                entries++;
+            }
+            patchLong(fixed, total);
+            patchLong(fixed + 8, hash);
+            patchLong(fixed + 16, position());
+            return new long[] {total, hash};
+        }
+
+        void header(byte[] name, byte[] prev, int type, long dmtime) throws IOException {
+            int shared = 0, max = Math.min(name.length, prev.length);
+            while (shared < max && name[shared] == prev[shared]) shared++;
+            putVarLong(shared);
+            putVarLong(name.length - shared);
+            putBytes(name, shared, name.length - shared);
+            put(type);
+            putVarLong((dmtime << 1) ^ (dmtime >> 63));   // Zig-zag
+        }
+
+        void put(int b) throws IOException {
+            if (!buf.hasRemaining()) flush();
+            buf.put((byte)b);
+        }
+
+        void putVarLong(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                put((int)((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            put((int)v);
+        }
+
+        void putBytes(byte[] b, int off, int len) throws IOException {
+            for (int i = off ; i < off + len ; i++) put(b[i]);
+        }
+
+        /** Riserva n byte contigui nel buffer e ritorna la loro posizione */
+        long reserve(int n) throws IOException {
+            if (buf.remaining() < n) flush();
+            long p = position();
+            buf.position(buf.position() + n);
+            return p;
+        }
+
+        void patchLong(long pos, long v) throws IOException {
+            if (pos >= flushed) {
+                buf.putLong((int)(pos - flushed), v);
+            } else {
+                ByteBuffer b = ByteBuffer.allocate(8).putLong(0, v);
+                while (b.hasRemaining()) ch.write(b, pos + b.position());
+            }
+        }
+
+        long position() { return flushed + buf.position(); }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) flushed += ch.write(buf, flushed);
+            buf.clear();
+        }
+
+        final FileChannel ch;
+        final DirLister lister;
+        final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        long flushed = 0;          // Byte già scritti nel file
+        long entries = 0;
+    }
+
+    private TreeSnapshot(MappedByteBuffer[] segs, long fileSize) throws IOException {
+        Cursor c = new Cursor(segs, 0);
+        long mv = fileSize >= 16 ? c.fixedLong() : 0;   // Magic e versione
+        if ((int)(mv >>> 32) != MAGIC || (int)mv != VERSION)
+            throw new IOException("Il file non è un'istantanea");
+        entries = c.fixedLong();
+        byte[] name = new byte[(int)c.varLong()];
+        for (int i = 0 ; i < name.length ; i++) name[i] = c.get();
+        this.segs = segs;
+        this.fileSize = fileSize;
+        root = Paths.get(new String(name, StandardCharsets.UTF_8));
+        start = c.pos;
+    }
+
+    private static long entryHash(byte[] name, int type, long size, long mtime) {
+        long h = 0xcbf29ce484222325L;                      // FNV-1a del nome
+        for (byte b : name) h = (h ^ (b & 0xFF))*0x100000001B3L;
+        return mix(h ^ mix(size*31 + type) ^ mix(mtime + 0x632BE59BD9B4E019L));
+    }
+
+    private static long mix(long h) {                       // Finalizzatore di
+        h = (h ^ (h >>> 33))*0xff51afd7ed558ccdL;            // MurmurHash3
+        h = (h ^ (h >>> 33))*0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static final int MAGIC = 0x4D505453, VERSION = 1;   // "MPTS"
+    private static final int FILE = 0, DIR = 1, OTHER = 2;
+    private static final byte[] NO_NAME = new byte[0];
+    private static final int SEG_BITS = 30;              // Segmenti da 1GB
+    private static final long SEG_MASK = (1L << SEG_BITS) - 1;
+
+    private MappedByteBuffer[] segs;
+    private final long fileSize, entries, start;   // start: posizione della radice
+    private final Path root;
+}
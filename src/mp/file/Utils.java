@@ -1,14 +1,17 @@
 package mp.file;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Stream;
+import mp.util.CountMap;
 
 import static java.lang.System.out;
 
@@ -18,59 +21,215 @@ public class Utils {
      * numero di occorrenze. Per parola si intende una sequenza di lettere
      * (riconosciute dal metodo {@link Character#isLetter(char)}) di
      * lunghezza massimale. Le parole sono sensibili alle maiuscole/minuscole.
+     * Per i charset supportati da {@link mp.file.ByteTokenizer} le parole sono
+     * riconosciute direttamente sui byte del file.
      * @param path  il percorso del file
      * @param charset  il charset per decodificare i caratteri
      * @return  una mappa che conta le occorenze delle parole
      * @throws java.io.IOException se si verifica un errore accedendo al file */
-    public static Map<String,Integer> wordMap(Path path, String charset)
+    public static CountMap wordMap(Path path, String charset)
             throws IOException {
-        Map<String,Integer> map = new HashMap<>();
-        try (Scanner scan = new Scanner(path, charset)){
-            scan.useDelimiter("[^\\p{IsLetter}]+");    // Caratteri != lettere
-            while (scan.hasNext()) {
-                String w = scan.next();
-                Integer n = map.get(w);
-                map.put(w, (n != null ? n+1 : 1));
+        return wordMap(path, charset, null);
+    }
+
+    /** Come {@link mp.file.Utils#wordMap(Path, String)} ma le parole sono
+     * normalizzate dagli stadi dati durante l'unico passaggio sul file, ad
+     * esempio per ignorare maiuscole/minuscole e accenti. Per i charset non
+     * supportati da {@link mp.file.ByteTokenizer} la normalizzazione è
+     * applicata ad ogni parola ma gli apostrofi non sono riconosciuti (vedi
+     * {@link mp.file.WordNormalizer#apostrophes()}).
+     * @param path  il percorso del file
+     * @param charset  il charset per decodificare i caratteri
+     * @param norm  gli stadi di normalizzazione o null
+     * @return  una mappa che conta le occorenze delle parole normalizzate
+     * @throws java.io.IOException se si verifica un errore accedendo al file */
+    public static CountMap wordMap(Path path, String charset, WordNormalizer norm)
+            throws IOException {
+        Charset cs = Charset.forName(charset);
+        if (ByteTokenizer.supports(cs)) {   // Conta direttamente sui byte
+            ByteTokenizer tok = new ByteTokenizer(cs, norm);
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                tok.count(ch);
             }
+            return tok.toCountMap();
+        }
+        CountMap map = new CountMap();
+        if (norm == null) {
+            words(path, charset, map::increment);
+        } else {
+            Map<String,String> normal = new HashMap<>();   // Forma -> normalizzata
+            words(path, charset, w -> {
+                String n = normal.computeIfAbsent(w, norm::normalize);
+                if (n != null) map.increment(n);
+            });
         }
         return map;
     }
 
-    /** Ritorna una stringa che rappresenta l'albero di directory e file a partire
-     * dal percorso specificato.
-     * @param root  percorso della directory radice
-     * @return  una stringa che rappresenta l'albero di directory e file
-     * @throws java.io.IOException se si verifi qualche errore nell'accesso ai file/dir */
-    public static String fileTreeToString(Path root) throws IOException {
-        // Classe locale che realizza un visitatore di un albero di dir e file
-        class Visitor extends SimpleFileVisitor<Path> {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-                    throws IOException {
-                if (Files.isHidden(dir)) return FileVisitResult.SKIP_SUBTREE;
-                s += pre+(pre.isEmpty() ? "" : "---")+dir.getFileName()+"\n";
-                pre += "    |";
-                return FileVisitResult.CONTINUE;
-            }
+    /** Esegue l'azione data su ogni parola del file specificato, nell'ordine in
+     * cui appaiono. Le parole sono le stesse di
+     * {@link mp.file.Utils#wordMap(Path, String)}, ma nessuna struttura è
+     * mantenuta in memoria.
+     * @param path  il percorso del file
+     * @param charset  il charset per decodificare i caratteri
+     * @param action  l'azione da eseguire su ogni parola
+     * @throws java.io.IOException se si verifica un errore accedendo al file */
+    public static void words(Path path, String charset, Consumer<String> action)
+            throws IOException {
+        try (Scanner scan = new Scanner(path, charset)){
+            scan.useDelimiter("[^\\p{IsLetter}]+");    // Caratteri != lettere
+            while (scan.hasNext())
+                action.accept(scan.next());
+        }
+    }
 
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                s += pre+"---"+file.getFileName()+" " + attrs.size()+"\n";
-                return FileVisitResult.CONTINUE;
+    /** Implementazione parallela di {@link mp.file.Utils#wordMap(Path, String)}
+     * che ritorna la stessa mappa. Il file è mappato in memoria e diviso in
+     * pezzi, uno o più per processore. Il confine di ogni pezzo è spostato in
+     * avanti fino al primo byte ASCII che non è una lettera, così nessuna parola
+     * è spezzata tra due pezzi. Ogni pezzo è decodificato e contato da un task
+     * separato e alla fine le mappe parziali sono fuse. Se il charset non è
+     * compatibile con ASCII (ad es. UTF-16) usa semplicemente
+     * {@link mp.file.Utils#wordMap(Path, String)}.
+     * @param path  il percorso del file
+     * @param charset  il charset per decodificare i caratteri
+     * @return  una mappa che conta le occorenze delle parole
+     * @throws java.io.IOException se si verifica un errore accedendo al file */
+    public static CountMap wordMapParallel(Path path, String charset)
+            throws IOException {
+        return wordMapParallel(path, charset, null);
+    }
+
+    /** Implementazione parallela di
+     * {@link mp.file.Utils#wordMap(Path, String, WordNormalizer)}.
+     * @param path  il percorso del file
+     * @param charset  il charset per decodificare i caratteri
+     * @param norm  gli stadi di normalizzazione o null
+     * @return  una mappa che conta le occorenze delle parole normalizzate
+     * @throws java.io.IOException se si verifica un errore accedendo al file */
+    public static CountMap wordMapParallel(Path path, String charset,
+                                           WordNormalizer norm) throws IOException {
+        Charset cs = Charset.forName(charset);
+        if (!asciiCompatible(cs) ||
+                (norm != null && !ByteTokenizer.supports(cs)))
+            return wordMap(path, charset, norm);
+        int np = Runtime.getRuntime().availableProcessors();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long len = ch.size();
+            long chunk = Math.max(len/(4*np) + 1, MIN_CHUNK);
+            chunk = Math.min(chunk, Integer.MAX_VALUE);  // Limite di un mapping
+            List<long[]> chunks = new ArrayList<>();
+            for (long start = 0 ; start < len ; ) {
+                long end = start + chunk >= len ? len : splitPoint(ch, start + chunk);
+                chunks.add(new long[] {start, end});
+                start = end;
             }
+            ExecutorService exec = Executors.newFixedThreadPool(np);
+            List<Future<CountMap>> tasks = new ArrayList<>();
+            CountMap map = new CountMap();
+            try {
+                for (long[] c : chunks)
+                    tasks.add(exec.submit(() -> {
+                        ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+                                c[0], c[1] - c[0]);
+                        if (ByteTokenizer.supports(cs)) {
+                            ByteTokenizer tok = new ByteTokenizer(cs, norm);
+                            tok.count(buf);
+                            return tok.toCountMap();
+                        }
+                        CountMap m = new CountMap();
+                        countWords(cs.newDecoder()
+                                .onMalformedInput(CodingErrorAction.REPLACE)
+                                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                                .decode(buf), m);
+                        return m;
+                    }));
+                for (Future<CountMap> t : tasks)
+                    map.addAll(t.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException)e.getCause();
+                throw new RuntimeException(e.getCause());
+            } finally { exec.shutdownNow(); }
+            return map;
+        }
+    }
 
-            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                pre = pre.substring(0, pre.length() - 4);
-                s += pre + "\n";
-                return FileVisitResult.CONTINUE;
+    /** Dimensione minima di un pezzo in {@link mp.file.Utils#wordMapParallel} */
+    private static final long MIN_CHUNK = 1 << 20;
+
+    /** Ritorna la posizione del primo byte, a partire da pos, che è un carattere
+     * ASCII diverso da una lettera e dall'apostrofo (che potrebbe far parte di
+     * una parola normalizzata), o la lunghezza del file se non c'è.
+     * @param ch  il canale del file
+     * @param pos  posizione da cui iniziare la ricerca
+     * @return la posizione in cui si può dividere il file
+     * @throws IOException se si verifica un errore leggendo il file */
+    private static long splitPoint(FileChannel ch, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (true) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0) return ch.size();
+            for (int i = 0 ; i < n ; i++) {
+                int b = buf.get(i);
+                if (b >= 0 && b != '\'' && !Character.isLetter(b)) return pos + i;
             }
+            pos += n;
+        }
+    }
+
+    /** Ritorna true se nel charset i caratteri ASCII sono codificati da un
+     * singolo byte uguale al loro codice e se un byte minore di 128 non può far
+     * parte della codifica di un altro carattere. Questo vale per UTF-8 e per i
+     * charset a un byte come ISO-8859-1.
+     * @param cs  un charset
+     * @return true se il charset è compatibile con ASCII */
+    private static boolean asciiCompatible(Charset cs) {
+        if (!cs.canEncode()) return false;
+        CharsetEncoder enc = cs.newEncoder();
+        if (!cs.equals(StandardCharsets.UTF_8) && enc.maxBytesPerChar() != 1)
+            return false;
+        byte[] ascii = new byte[128];
+        for (int i = 0 ; i < ascii.length ; i++) ascii[i] = (byte)i;
+        String s = new String(ascii, StandardCharsets.US_ASCII);
+        return Arrays.equals(s.getBytes(cs), ascii);
+    }
 
-            String s = "", pre = "";
+    /** Conta nella mappa le parole della sequenza di caratteri, cioè le
+     * sequenze massimali di lettere come in
+     * {@link mp.file.Utils#wordMap(Path, String)}.
+     * @param cs  una sequenza di caratteri
+     * @param map  la mappa in cui contare le parole */
+    private static void countWords(CharSequence cs, CountMap map) {
+        int n = cs.length(), i = 0;
+        while (i < n) {
+            int cp = Character.codePointAt(cs, i);
+            if (!Character.isLetter(cp)) {
+                i += Character.charCount(cp);
+                continue;
+            }
+            int start = i;               // Inizio di una parola
+            while (i < n && Character.isLetter(cp = Character.codePointAt(cs, i)))
+                i += Character.charCount(cp);
+            map.increment(cs.subSequence(start, i).toString());
         }
-        Visitor vis = new Visitor();    // Crea il visitatore e lo passa
-        Files.walkFileTree(root, vis);  // al metodo che effettua la visita
-        return vis.s;                   // Al termine della visita, in s c'è
-    }                                   // la rappresentazione dell'albero
+    }
+
+    /** Ritorna una stringa che rappresenta l'albero di directory e file a partire
+     * dal percorso specificato. Per alberi grandi conviene scrivere la
+     * rappresentazione direttamente con {@link mp.file.TreeRenderer}.
+     * @param root  percorso della directory radice
+     * @return  una stringa che rappresenta l'albero di directory e file
+     * @throws java.io.IOException se si verifi qualche errore nell'accesso ai file/dir */
+    public static String fileTreeToString(Path root) throws IOException {
+        StringBuilder s = new StringBuilder();
+        new TreeRenderer().render(root, s);
+        return s.toString();
+    }
 
     private static void test_fileTreeToString() {
         Scanner input = new Scanner(System.in);
@@ -78,13 +237,14 @@ public class Utils {
         String pathname = input.nextLine();
         Path root = Paths.get(pathname).toAbsolutePath();
         try {
-            out.println(fileTreeToString(root));
+            new TreeRenderer().maxDepth(4).maxEntries(50).humanSizes(true)
+                    .render(root, out);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private static final LinkOption NOL = LinkOption.NOFOLLOW_LINKS;
+    private static final DirLister DIRS = DirLister.standard();
 
     /** Ritorna il numero totale di byte contenuti nella directory specificata. Se
      * non è una directory, ritorna 0. I link simbolici non sono seguiti, solamente
@@ -92,15 +252,10 @@ public class Utils {
      * @param d  percorso di una directory
      * @return il numero totale di byte contenuti nella directory */
     public static long totalSize(Path d) {
-        long size = 0;
-        try (Stream<Path> list = Files.list(d)) {
-            for (Path p : list.toArray(Path[]::new)) {
-                if (Files.isDirectory(p, NOL)) {
-                    size += totalSize(p);
-                } else if (Files.isRegularFile(p, NOL))
-                    size += Files.size(p);       // Files.size è garantito
-            }                                    // solo per file regolari
-        } catch (IOException ex) { }  // Ignora errori di I/O
+        List<Path> dirs = new ArrayList<>();
+        long size = DIRS.filesSize(d, dirs::add);  // Ignora errori di I/O
+        for (Path p : dirs)
+            size += totalSize(p);
         return size;
     }
 
@@ -110,15 +265,10 @@ public class Utils {
     public static long totalSizeNR(Path d) {
         class Tot {
             long total(Path d) {  // Ritorna numero totale di byte della dir d
-                long size = 0;
-                try (Stream<Path> list = Files.list(d)) {
-                    for (Path e : list.toArray(Path[]::new)) {
-                        if (Files.isDirectory(e, NOL)) {
-                            size += new Tot().total(e);  // No chiamata ricorsiva
-                        } else if (Files.isRegularFile(e, NOL))
-                            size += Files.size(e);
-                    }
-                } catch (IOException ex) { }
+                List<Path> dirs = new ArrayList<>();
+                long size = DIRS.filesSize(d, dirs::add);
+                for (Path e : dirs)
+                    size += new Tot().total(e);  // No chiamata ricorsiva
                 return size;
             }
         }
@@ -137,16 +287,9 @@ public class Utils {
         ExecutorService exec = Executors.newWorkStealingPool();
         class Tot {
             long total(Path d) {
-                long size = 0;
                 List<Future<Long>> tasks = new ArrayList<>();
-                try (Stream<Path> list = Files.list(d)) {
-                    for (Path e : list.toArray(Path[]::new)) {
-                        if (Files.isDirectory(e, NOL)) {
-                            tasks.add(exec.submit(() -> new Tot().total(e)));
-                        } else if (Files.isRegularFile(e, NOL))
-                            size += Files.size(e);
-                    }
-                } catch (IOException e) { }
+                long size = DIRS.filesSize(d, e ->
+                        tasks.add(exec.submit(() -> new Tot().total(e))));
                 for (Future<Long> t : tasks)
                     try {
                         size += t.get(30, TimeUnit.SECONDS);
@@ -170,7 +313,9 @@ public class Utils {
      * task ancora pendenti (cioè sottomessi ma non ancora completati) usa un
      * {@link java.util.concurrent.atomic.LongAdder}.
      * @param d  percorso di una directory
-     * @return il numero totale di byte contenuti nella directory */
+     * @return il numero totale di byte contenuti nella directory
+     * @throws CancellationException se il thread è interrotto durante la visita
+     * (lo stato di interruzione è ripristinato) */
     public static long totalSizeConcur(Path d)  {
         int np = Runtime.getRuntime().availableProcessors();
         ExecutorService pool = Executors.newFixedThreadPool(np);
@@ -178,17 +323,10 @@ public class Utils {
         LongAdder pending = new LongAdder();  // Tiene il conto dei task pendenti
         class Tot {
             long total(Path d) {  // Sottomette i task delle sub-directory e
-                long size = 0;    // ritorna la somma dei byte dei file regolari
-                try (Stream<Path> list = Files.list(d)) {
-                    for (Path e : list.toArray(Path[]::new)) {
-                        if (Files.isDirectory(e, NOL)) {
-                            pending.increment();   // Sottomette il sub-task per la
-                            exec.submit(() -> new Tot().total(e)); // sub-directory
-                        } else if (Files.isRegularFile(e, NOL))
-                            size += Files.size(e);
-                    }
-                } catch (IOException ex) { }
-                return size;
+                return DIRS.filesSize(d, e -> {  // ritorna la somma dei byte
+                    pending.increment();         // dei file regolari
+                    exec.submit(() -> new Tot().total(e));
+                });
             }
         }
         long total = 0;
@@ -199,8 +337,12 @@ public class Utils {
                 total += exec.take().get();   // chiedi il risultato di un task
                 pending.decrement();          // e decrementa i task pendenti
             }
-        } catch (InterruptedException | ExecutionException exc) {
-        } finally { pool.shutdown(); }
+        } catch (InterruptedException ex) {   // Non ritorna un totale parziale
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Visita interrotta");
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally { pool.shutdownNow(); }
         return total;
     }
 
@@ -210,7 +352,9 @@ public class Utils {
      * direttamente contenuti nella directory. Tutti i task sono sottomessi nel
      * thread d'invocazione del metodo.
      * @param p  percorso di una directory
-     * @return il numero totale di bytes contenuti nella directory */
+     * @return il numero totale di bytes contenuti nella directory
+     * @throws CancellationException se il thread è interrotto durante la visita
+     * (lo stato di interruzione è ripristinato) */
     public static long totalSizeConcur2(Path p)  {
         class Content {               // Il contenuto di una directory
             Content(long s, List<Path> list) {
@@ -221,16 +365,8 @@ public class Utils {
             final List<Path> dirs;    // Lista delle sub-directory
         }
         Function<Path,Content> getCont = d -> { // Ritorna il contenuto della dir d
-            long size = 0;                      // e non sottomette sub-task
-            List<Path> dirs = new ArrayList<>();
-            try (Stream<Path> list = Files.list(d)) {
-                for (Path e : list.toArray(Path[]::new)) {
-                    if (Files.isDirectory(e, NOL)) {
-                        dirs.add(e);
-                    } else if (Files.isRegularFile(e, NOL))
-                        size += Files.size(e);
-                }
-            } catch (IOException ex) { }
+            List<Path> dirs = new ArrayList<>(); // e non sottomette sub-task
+            long size = DIRS.filesSize(d, dirs::add);
             return new Content(size, dirs);
         };
         int np = Runtime.getRuntime().availableProcessors();
@@ -247,70 +383,150 @@ public class Utils {
                 for (Path d : c.dirs)           // Sottomette i sub-task del task
                     exec.submit(() -> getCont.apply(d));
             }
-        } catch (InterruptedException | ExecutionException e) {
-        } finally { pool.shutdown(); }
+        } catch (InterruptedException ex) {   // Non ritorna un totale parziale
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Visita interrotta");
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally { pool.shutdownNow(); }
         return total;
     }
 
     /** Implementazione concorrente di {@link mp.file.Utils#totalSize(Path)}. Usa
-     * una coda sincronizzata {@link java.util.concurrent.ConcurrentLinkedQueue} e
-     * un contatore atomico {@link java.util.concurrent.atomic.LongAdder} per la
-     * somma dei byte dei file. Il task per una directory aggiunge alla coda le
+     * una coda di directory da visitare {@link mp.file.PathQueue}, condivisa da
+     * tanti thread quanti processori, e un contatore atomico
+     * {@link java.util.concurrent.atomic.LongAdder} per la somma dei byte dei
+     * file. Ogni thread prende dalla coda una directory, aggiunge alla coda le
      * sub-directory e aggiorna il contatore atomico con i byte dei file regolari
-     * direttamente contenuti nella directory. Per eseguire i task usa un
-     * {@link java.util.concurrent.Executors#newFixedThreadPool(int)}.
+     * direttamente contenuti nella directory. Un thread che trova la coda vuota
+     * si blocca finché un altro thread accoda una directory, o finché la visita
+     * è terminata, e il thread d'invocazione aspetta la terminazione dei thread
+     * con {@link java.util.concurrent.ExecutorService#invokeAll}: nessun thread
+     * consuma CPU mentre aspetta. La coda mantiene in memoria al più
+     * {@link mp.file.Utils#QUEUE_CAPACITY} directory e scrive le altre su disco,
+     * quindi la memoria usata non cresce con la larghezza dell'albero.
      * @param p  percorso di una directory
-     * @return il numero totale di bytes contenuti nella directory */
+     * @return il numero totale di bytes contenuti nella directory
+     * @throws CancellationException se il thread è interrotto durante la visita
+     * (lo stato di interruzione è ripristinato)
+     * @throws java.io.UncheckedIOException se si verifica un errore scrivendo o
+     * leggendo le directory in attesa su disco */
     public static long totalSizeQueue(Path p) {
-        ConcurrentLinkedQueue<Optional<Path>> queue = new ConcurrentLinkedQueue<>();
         LongAdder size = new LongAdder();  // Per il conteggio dei byte
-        Consumer<Path> task = d -> {       // Somma i byte dei file a size e accoda
-            try (Stream<Path> list = Files.list(d)) {  // le sub-directory
-                for (Path e : list.toArray(Path[]::new)) {
-                    if (Files.isDirectory(e, NOL)) {
-                        queue.add(Optional.of(e));   // Accoda la sub-directory
-                    } else if (Files.isRegularFile(e, NOL))
-                        size.add(Files.size(e));     // Aggiorna size
-                }
-            } catch (IOException ex) { }
-            queue.add(Optional.empty());     // Marca la fine del task
-        };
         int np = Runtime.getRuntime().availableProcessors();
         ExecutorService exec = Executors.newFixedThreadPool(np);
-        long pending = 0;
-        try {
-            pending++;
-            exec.submit(() -> task.accept(p));
-            while (pending > 0) {              // Finché ci sono task pendenti
-                Optional<Path> op = queue.poll();  // Il primo elemento in coda
-                if (op != null) {            // Se c'è,
-                    if (op.isPresent()) {    // ed è relativo a una sub-directory
-                        pending++;           // sottomette il relativo task
-                        exec.submit(() -> task.accept(op.get()));
-                    } else                   // se invece marca la fine di un
-                        pending--;           // task, decrementa il contatore
+        try (PathQueue queue = new PathQueue(QUEUE_CAPACITY)) {
+            queue.put(p);
+            Callable<Void> worker = () -> {
+                for (Path d = queue.take() ; d != null ; d = queue.take()) {
+                    try {                  // Somma i byte dei file a size e
+                        size.add(DIRS.filesSize(d, queue::put)); // accoda le
+                    } finally { queue.done(); }                  // sub-directory
                 }
+                return null;
+            };
+            try {
+                for (Future<Void> f : exec.invokeAll(Collections.nCopies(np, worker)))
+                    f.get();
+            } finally {              // Nessun thread usa più la coda quando è chiusa
+                exec.shutdownNow();
+                mp.util.Utils.close(exec);
             }
-        } finally { exec.shutdown(); }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Visita interrotta");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException)ex.getCause();
+            throw new RuntimeException(ex.getCause());
+        }
         return size.sum();
     }
 
+    /** Numero massimo di directory in attesa mantenute in memoria da
+     * {@link mp.file.Utils#totalSizeQueue(Path)} */
+    public static final int QUEUE_CAPACITY = 1 << 16;
+
     /** Implementazione tramite Fork-Join di {@link mp.file.Utils#totalSize(Path)}.
      * @param d  percorso di una directory
      * @return il numero totale di bytes contenuti nella directory */
     public static long totalSizeForkJoin(Path d)  {
-        long size = 0;
+        return totalSizeForkJoin(d, DIRS);
+    }
+
+    /** Come {@link mp.file.Utils#totalSizeForkJoin(Path)} ma legge le directory
+     * con il {@link DirLister} dato, ad esempio per simulare un file system lento.
+     * @param d  percorso di una directory
+     * @param lister  legge il contenuto delle directory
+     * @return il numero totale di bytes contenuti nella directory */
+    public static long totalSizeForkJoin(Path d, DirLister lister)  {
         List<ForkJoinTask<Long>> tasks = new ArrayList<>();
-        try (Stream<Path> list = Files.list(d)) {
-            for (Path e : list.toArray(Path[]::new)) {
-                if (Files.isDirectory(e, NOL)) {
-                    tasks.add(ForkJoinTask.adapt(() -> totalSizeForkJoin(e)));
-                } else if (Files.isRegularFile(e, NOL))
-                    size += Files.size(e);
-            }
-        } catch (IOException ex) { }
+        long size = lister.filesSize(d, e ->
+                tasks.add(ForkJoinTask.adapt(() -> totalSizeForkJoin(e, lister))));
         for (ForkJoinTask<Long> t : ForkJoinTask.invokeAll(tasks))
             size += t.join();
         return size;
     }
+
+    /** Implementazione di {@link mp.file.Utils#totalSize(Path)} con un thread
+     * virtuale per ogni directory. Vedi
+     * {@link mp.file.Utils#totalSizeVirtual(Path, DirLister, int)}.
+     * @param d  percorso di una directory
+     * @return il numero totale di bytes contenuti nella directory */
+    public static long totalSizeVirtual(Path d) {
+        return totalSizeVirtual(d, DIRS, MAX_OPEN_DIRS);
+    }
+
+    /** Implementazione di {@link mp.file.Utils#totalSize(Path)} con un thread
+     * virtuale per ogni directory, adatta ai file system con alta latenza (ad
+     * esempio di rete) in cui conviene avere molte più letture in corso che
+     * processori. La concorrenza è strutturata: il thread di una directory
+     * legge la directory, avvia i thread delle sub-directory in un proprio
+     * executor e ne aspetta la terminazione chiudendolo. Mentre aspetta, un
+     * thread virtuale non occupa un thread della piattaforma. Un semaforo
+     * limita il numero di directory aperte contemporaneamente. Il codice
+     * compila con Java 17, ma i thread virtuali richiedono Java 21 in
+     * esecuzione.
+     * @param d  percorso di una directory
+     * @param lister  legge il contenuto delle directory
+     * @param maxOpen  numero massimo di directory aperte contemporaneamente
+     * @return il numero totale di bytes contenuti nella directory
+     * @throws CancellationException se il thread è interrotto durante la visita
+     * (lo stato di interruzione è ripristinato)
+     * @throws UnsupportedOperationException se la JVM non supporta i thread
+     * virtuali */
+    public static long totalSizeVirtual(Path d, DirLister lister, int maxOpen) {
+        Semaphore open = new Semaphore(maxOpen);
+        class Tot {
+            long total(Path d) throws InterruptedException, ExecutionException {
+                List<Path> dirs = new ArrayList<>();
+                long size;
+                open.acquire();
+                try {
+                    size = lister.filesSize(d, dirs::add);
+                } finally { open.release(); }
+                ExecutorService scope = mp.util.Utils.newVirtualThreadPerTaskExecutor();
+                try {
+                    List<Future<Long>> tasks = new ArrayList<>();
+                    for (Path e : dirs)
+                        tasks.add(scope.submit(() -> total(e)));
+                    for (Future<Long> t : tasks)
+                        size += t.get();
+                } finally { mp.util.Utils.close(scope); }
+                return size;
+            }
+        }
+        try {
+            return new Tot().total(d);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Visita interrotta");
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /** Numero massimo di default di directory aperte da
+     * {@link mp.file.Utils#totalSizeVirtual(Path)} */
+    public static final int MAX_OPEN_DIRS = 256;
 }
@@ -0,0 +1,179 @@
+package mp.file;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import mp.util.CountMap;
+
+/** Una cache su disco dei risultati di {@link mp.file.Utils#wordMap(Path, String)}.
+ * Per ogni coppia (file, charset) è mantenuto un file nella directory della
+ * cache che contiene l'identità del file (percorso e chiave del file system),
+ * la sua dimensione, la data di modifica, il charset e i conteggi delle parole
+ * in forma binaria. Se il file non è cambiato i conteggi sono caricati con una
+ * sola lettura sequenziale, altrimenti sono ricalcolati e la cache aggiornata.
+ * Il file della cache è scritto in un file temporaneo e poi rinominato, così
+ * più processi possono usare la stessa cache. */
+public class WordMapCache {
+    /** Crea una cache nella directory data.
+     * @param dir  la directory della cache, è creata se non esiste */
+    public WordMapCache(Path dir) { this.dir = dir; }
+
+    /** Ritorna una cache nella directory {@code mp-wordmap} dentro la
+     * directory temporanea di sistema.
+     * @return la cache di default */
+    public static WordMapCache getDefault() {
+        return new WordMapCache(Paths.get(System.getProperty("java.io.tmpdir"),
+                "mp-wordmap"));
+    }
+
+    /** Ritorna la stessa mappa di {@link mp.file.Utils#wordMap(Path, String)},
+     * leggendola dalla cache se il file non è cambiato da quando è stata
+     * memorizzata. Un file della cache illeggibile o corrotto è ignorato e un
+     * errore scrivendo nella cache (disco pieno, directory non scrivibile) non
+     * impedisce di ritornare la mappa.
+     * @param path  il percorso del file
+     * @param charset  il charset per decodificare i caratteri
+     * @return  una mappa che conta le occorenze delle parole
+     * @throws java.io.IOException se si verifica un errore accedendo al file */
+    public CountMap wordMap(Path path, String charset) throws IOException {
+        path = path.toAbsolutePath().normalize();
+        String cs = Charset.forName(charset).name();
+        BasicFileAttributes a = Files.readAttributes(path, BasicFileAttributes.class);
+        Key key = new Key(path, a, cs);
+        Path entry = dir.resolve(key.fileName());
+        if (Files.exists(entry)) {
+            try {
+                CountMap map = read(entry, key);
+                if (map != null) return map;
+            } catch (IOException | RuntimeException e) { }  // Ricalcola
+        }
+        CountMap map = Utils.wordMap(path, charset);
+        BasicFileAttributes b = Files.readAttributes(path, BasicFileAttributes.class);
+        if (key.equals(new Key(path, b, cs))) {   // Non è cambiato durante il calcolo
+            try {
+                write(entry, key, map);
+            } catch (IOException | RuntimeException e) { }  // La cache è facoltativa
+        }
+        return map;
+    }
+
+    /** L'identità e lo stato di un file */
+    private static class Key {
+        Key(Path path, BasicFileAttributes a, String charset) {
+            this(path.toString(), String.valueOf(a.fileKey()), a.size(),
+                    a.lastModifiedTime().to(TimeUnit.NANOSECONDS), charset);
+        }
+
+        Key(String path, String fileKey, long size, long mtime, String charset) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.size = size;
+            this.mtime = mtime;
+            this.charset = charset;
+        }
+
+        /** @return il nome del file della cache, uno per percorso e charset */
+        String fileName() {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                byte[] h = md.digest((path+"\0"+charset).getBytes(StandardCharsets.UTF_8));
+                StringBuilder sb = new StringBuilder();
+                for (byte x : h) sb.append(String.format("%02x", x));
+                return sb.append(".wm").toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);   // SHA-1 c'è sempre
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key)o;
+            return path.equals(k.path) && fileKey.equals(k.fileKey) &&
+                    size == k.size && mtime == k.mtime && charset.equals(k.charset);
+        }
+
+        @Override
+        public int hashCode() { return path.hashCode(); }
+
+        final String path, fileKey, charset;
+        final long size, mtime;
+    }
+
+    /** Legge i conteggi dal file della cache se la chiave memorizzata è
+     * uguale a quella data, altrimenti ritorna null. */
+    private static CountMap read(Path entry, Key key) throws IOException {
+        byte[] bytes = Files.readAllBytes(entry);     // Una sola lettura
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC) return null;
+        Key k = new Key(readString(in), readString(in), in.readLong(), in.readLong(),
+                readString(in));
+        if (!key.equals(k)) return null;
+        int n = in.readInt();
+        CountMap map = new CountMap(n);
+        for (int i = 0 ; i < n ; i++)
+            map.add(readString(in), in.readInt());
+        return map;
+    }
+
+    private void write(Path entry, Key key, CountMap map) throws IOException {
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "wm", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                writeString(out, key.path);
+                writeString(out, key.fileKey);
+                out.writeLong(key.size);
+                out.writeLong(key.mtime);
+                writeString(out, key.charset);
+                out.writeInt(map.size());
+                map.forEachCount((w, c) -> {
+                    try {
+                        writeString(out, w);
+                        out.writeInt(c);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);   // Interrompe la scrittura
+                    }
+                });
+            } catch (UncheckedIOException e) { throw e.getCause(); }
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally { Files.deleteIfExists(tmp); }
+    }
+
+    /** Scrive la stringa come lunghezza in byte a lunghezza variabile seguita
+     * dai byte UTF-8, senza il limite di 65535 byte di {@code writeUTF} */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        int v = b.length;
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = 0;
+        for (int shift = 0 ; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            len |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static final int MAGIC = 0x4D505732;   // "MPW2", stringhe UTF-8
+
+    private final Path dir;
+}
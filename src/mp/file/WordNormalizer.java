@@ -0,0 +1,87 @@
+package mp.file;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/** Uno stadio di normalizzazione delle parole riconosciute da
+ * {@link mp.file.ByteTokenizer}. Il metodo {@link WordNormalizer#normalize}
+ * trasforma una parola nella sua forma normalizzata oppure ritorna null per
+ * scartarla. Il tokenizzatore applica la normalizzazione solamente la prima
+ * volta che incontra una parola, così i conteggi normalizzati sono prodotti
+ * in un solo passaggio senza costruire una seconda mappa. Gli stadi si
+ * compongono con {@link WordNormalizer#andThen}, ad esempio
+ * <pre>
+ *     WordNormalizer.keepApostrophes().andThen(WordNormalizer.dropElisions())
+ *             .andThen(WordNormalizer.lowerCase())
+ *             .andThen(WordNormalizer.foldAccents())
+ * </pre> */
+@FunctionalInterface
+public interface WordNormalizer {
+    /** Ritorna la forma normalizzata della parola o null se la parola deve
+     * essere scartata.
+     * @param w  una parola
+     * @return la parola normalizzata o null */
+    String normalize(String w);
+
+    /** Se ritorna true, il tokenizzatore include nella parola l'apostrofo
+     * (' o ’) che la segue immediatamente, normalizzato in '. Così le elisioni
+     * e i troncamenti dell'italiano ("l'", "dell'", "po'") sono distinti dalle
+     * parole senza apostrofo e possono essere trattati dagli stadi successivi.
+     * @return true se le parole includono l'apostrofo che le segue */
+    default boolean apostrophes() { return false; }
+
+    /** Ritorna lo stadio che applica prima questo stadio e poi quello dato.
+     * Le parole scartate da questo stadio non sono passate a next.
+     * @param next  lo stadio successivo
+     * @return la composizione dei due stadi */
+    default WordNormalizer andThen(WordNormalizer next) {
+        WordNormalizer first = this;
+        return new WordNormalizer() {
+            @Override
+            public String normalize(String w) {
+                w = first.normalize(w);
+                return w != null ? next.normalize(w) : null;
+            }
+
+            @Override
+            public boolean apostrophes() {
+                return first.apostrophes() || next.apostrophes();
+            }
+        };
+    }
+
+    /** @return lo stadio che riduce le parole in minuscolo */
+    static WordNormalizer lowerCase() { return w -> w.toLowerCase(Locale.ROOT); }
+
+    /** @return lo stadio che rimuove gli accenti e gli altri segni diacritici,
+     * ad esempio "perché" diventa "perche" */
+    static WordNormalizer foldAccents() {
+        Pattern marks = Pattern.compile("\\p{M}+");
+        return w -> {
+            for (int i = 0 ; i < w.length() ; i++)   // Solo ASCII, niente da fare
+                if (w.charAt(i) >= 0x80)
+                    return marks.matcher(Normalizer.normalize(w,
+                            Normalizer.Form.NFD)).replaceAll("");
+            return w;
+        };
+    }
+
+    /** @return lo stadio che lascia le parole invariate ma fa sì che includano
+     * l'apostrofo che le segue (vedi {@link WordNormalizer#apostrophes()}) */
+    static WordNormalizer keepApostrophes() {
+        return new WordNormalizer() {
+            @Override
+            public String normalize(String w) { return w; }
+
+            @Override
+            public boolean apostrophes() { return true; }
+        };
+    }
+
+    /** @return lo stadio che scarta le parole che terminano con un apostrofo,
+     * cioè le elisioni come "l'", "dell'", "un'" */
+    static WordNormalizer dropElisions() {
+        return w -> w.endsWith("'") ? null : w;
+    }
+}
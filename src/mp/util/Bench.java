@@ -0,0 +1,278 @@
+package mp.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Supplier;
+
+/** Un semplice harness per misurare le prestazioni di un'operazione, ad
+ * esempio dei metodi {@code totalSize*} di {@link mp.file.Utils}. Ogni
+ * operazione è prima eseguita alcune volte senza misurarla (riscaldamento, per
+ * dare tempo al compilatore JIT) e poi il numero di volte specificato misurando
+ * ogni esecuzione con {@link System#nanoTime()}. Per ogni operazione riporta il
+ * minimo, la media, i percentili 50, 90 e 99 e il massimo dei tempi, il tempo
+ * di CPU e i byte allocati per esecuzione sommati su tutti i thread (letti da
+ * {@link com.sun.management.ThreadMXBean} per ogni thread, compresi quelli dei
+ * pool creati dall'operazione, campionandoli periodicamente durante le
+ * misure), il picco del numero di thread addizionali e il picco della memoria
+ * heap addizionale. I risultati possono essere scritti in formato JSON. */
+public class Bench {
+    /** Il risultato delle misure di un'operazione. I tempi sono in
+     * nanosecondi. */
+    public static class Result {
+        public final String name;
+        /** Numero di esecuzioni misurate */
+        public final int n;
+        public final long min, p50, p90, p99, max;
+        public final double mean;
+        /** Tempo di CPU per esecuzione, sommato su tutti i thread */
+        public final long cpu;
+        /** Byte allocati per esecuzione, sommati su tutti i thread */
+        public final long allocated;
+        /** Picco del numero di thread addizionali */
+        public final int peakThreads;
+        /** Picco della memoria heap addizionale in byte */
+        public final long peakHeap;
+        /** Il valore ritornato dall'ultima esecuzione */
+        public final String value;
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s%n  ms: min %.2f  p50 %.2f  p90 %.2f  p99 %.2f"+
+                    "  max %.2f  media %.2f%n  CPU %.2f ms  allocati %s  thread +%d"+
+                    "  heap +%s", name, value, min/1e6, p50/1e6, p90/1e6, p99/1e6,
+                    max/1e6, mean/1e6, cpu/1e6, Utils.toGMKB(allocated), peakThreads,
+                    Utils.toGMKB(peakHeap));
+        }
+
+        /** @return la rappresentazione JSON del risultato */
+        public String toJson() {
+            return String.format(Locale.ROOT, "{\"name\": %s, \"value\": %s, \"n\": %d, "+
+                    "\"minNs\": %d, \"p50Ns\": %d, \"p90Ns\": %d, \"p99Ns\": %d, "+
+                    "\"maxNs\": %d, \"meanNs\": %.1f, \"cpuNs\": %d, "+
+                    "\"allocatedBytes\": %d, \"peakThreads\": %d, \"peakHeapBytes\": %d}",
+                    json(name), json(value), n, min, p50, p90, p99, max, mean, cpu,
+                    allocated, peakThreads, peakHeap);
+        }
+
+        private Result(String name, String value, long[] times, long cpu,
+                       long allocated, int peakThreads, long peakHeap) {
+            this.name = name;
+            this.value = value;
+            n = times.length;
+            Arrays.sort(times);
+            min = times[0];
+            p50 = percentile(times, 50);
+            p90 = percentile(times, 90);
+            p99 = percentile(times, 99);
+            max = times[n - 1];
+            mean = Arrays.stream(times).average().orElse(0);
+            this.cpu = cpu/n;
+            this.allocated = allocated/n;
+            this.peakThreads = peakThreads;
+            this.peakHeap = peakHeap;
+        }
+    }
+
+    /** Crea un harness.
+     * @param warmup  numero di esecuzioni di riscaldamento
+     * @param n  numero di esecuzioni misurate
+     * @throws IllegalArgumentException se warmup è negativo o n non è positivo */
+    public Bench(int warmup, int n) {
+        if (warmup < 0 || n <= 0)
+            throw new IllegalArgumentException("Numero di esecuzioni non valido");
+        this.warmup = warmup;
+        this.n = n;
+    }
+
+    /** Imposta un'azione da eseguire prima di ogni esecuzione misurata, senza
+     * misurarla: il suo tempo di CPU, i suoi byte allocati, i suoi thread e la
+     * sua memoria non sono conteggiati. Ad esempio {@link mp.file.TreeGenerator#dropCaches()} per
+     * misurare le visite di directory "a freddo".
+     * @param action  l'azione, o null per nessuna azione
+     * @return questo harness */
+    public Bench beforeEach(Runnable action) {
+        beforeEach = action;
+        return this;
+    }
+
+    /** Misura l'operazione data e aggiunge il risultato a quelli dell'harness.
+     * @param name  nome dell'operazione
+     * @param op  l'operazione
+     * @return il risultato delle misure */
+    public Result run(String name, Supplier<?> op) {
+        Object v = null;
+        for (int i = 0 ; i < warmup ; i++) v = op.get();
+        System.gc();
+        long peakHeap = 0;
+        long[] times = new long[n];
+        int peakThreads = 0;
+        Sampler s = new Sampler();
+        s.start();
+        for (int i = 0 ; i < n ; i++) {
+            if (beforeEach != null) s.exclude(beforeEach);    // Fuori dalle misure
+            int threads = TM.getThreadCount();  // Compreso il campionatore
+            TM.resetPeakThreadCount();
+            long heap = heapUsed();
+            resetPeakHeap();
+            long t = System.nanoTime();
+            v = op.get();
+            times[i] = System.nanoTime() - t;
+            peakThreads = Math.max(peakThreads, TM.getPeakThreadCount() - threads);
+            peakHeap = Math.max(peakHeap, peakHeap() - heap);
+        }
+        s.finish();
+        Result r = new Result(name, String.valueOf(v), times, s.cpu(), s.allocated(),
+                peakThreads, peakHeap);
+        results.add(r);
+        return r;
+    }
+
+    /** @return i risultati delle operazioni misurate finora */
+    public List<Result> results() { return Collections.unmodifiableList(results); }
+
+    /** Scrive i risultati in formato JSON (un array di oggetti) nel file dato.
+     * @param file  il file
+     * @throws IOException se si verifica un errore scrivendo il file */
+    public void writeJson(Path file) throws IOException { writeJson(results, file); }
+
+    /** Scrive i risultati dati in formato JSON (un array di oggetti) nel file
+     * dato.
+     * @param results  i risultati
+     * @param file  il file
+     * @throws IOException se si verifica un errore scrivendo il file */
+    public static void writeJson(List<Result> results, Path file) throws IOException {
+        try (Writer w = Files.newBufferedWriter(file)) {
+            w.write("[\n");
+            for (int i = 0 ; i < results.size() ; i++)
+                w.write("  "+results.get(i).toJson()+(i < results.size() - 1 ? ",\n" : "\n"));
+            w.write("]\n");
+        }
+    }
+
+    /** Campiona periodicamente il tempo di CPU e i byte allocati di ogni
+     * thread. Ricorda per ogni thread il valore all'inizio (0 per i thread
+     * creati dopo) e l'ultimo valore letto, così conta anche i thread che
+     * terminano durante le misure, a meno degli ultimi millisecondi. */
+    private static class Sampler extends Thread {
+        Sampler() {
+            super("Bench sampler");
+            setDaemon(true);
+            sample(true);
+        }
+
+        @Override
+        public void run() {
+            while (!done) {
+                sample(false);
+                try {
+                    Thread.sleep(PERIOD_MS);
+                } catch (InterruptedException ex) { return; }
+            }
+        }
+
+        void finish() {
+            done = true;
+            interrupt();
+            try {
+                join();
+            } catch (InterruptedException ex) { Thread.currentThread().interrupt(); }
+            sample(false);
+        }
+
+        @SuppressWarnings("deprecation")        // threadId() richiede Java 19
+        synchronized void sample(boolean first) {
+            long[] ids = TM.getAllThreadIds();
+            long[] cpu = TM.getThreadCpuTime(ids), alloc = TM.getThreadAllocatedBytes(ids);
+            for (int i = 0 ; i < ids.length ; i++) {
+                if (ids[i] == getId() || cpu[i] < 0) continue;   // Non il campionatore
+                long[] s = last.computeIfAbsent(ids[i], id -> new long[4]);
+                if (first) {
+                    s[0] = cpu[i];
+                    s[1] = alloc[i];
+                }
+                s[2] = cpu[i];
+                s[3] = alloc[i];
+            }
+        }
+
+        /** Esegue l'azione e sottrae dalle misure il tempo di CPU e i byte
+         * allocati da tutti i thread durante la sua esecuzione */
+        void exclude(Runnable action) {
+            sample(false);
+            long c = cpu(), a = allocated();
+            action.run();
+            sample(false);
+            synchronized (this) {
+                excludedCpu += cpu() - c;
+                excludedAlloc += allocated() - a;
+            }
+        }
+
+        synchronized long cpu() {
+            long sum = -excludedCpu;
+            for (long[] s : last.values()) sum += s[2] - s[0];
+            return sum;
+        }
+
+        synchronized long allocated() {
+            long sum = -excludedAlloc;
+            for (long[] s : last.values()) sum += s[3] - s[1];
+            return sum;
+        }
+
+        final Map<Long,long[]> last = new HashMap<>(); // Id -> {cpu0, alloc0, cpu, alloc}
+        long excludedCpu = 0, excludedAlloc = 0;       // Delle azioni escluse
+        volatile boolean done = false;
+    }
+
+    private static long percentile(long[] sorted, int p) {   // Nearest-rank
+        int k = (int)Math.ceil(p/100.0*sorted.length);
+        return sorted[Math.max(0, k - 1)];
+    }
+
+    private static long heapUsed() {
+        long used = 0;
+        for (MemoryPoolMXBean m : ManagementFactory.getMemoryPoolMXBeans())
+            if (m.getType() == MemoryType.HEAP) used += m.getUsage().getUsed();
+        return used;
+    }
+
+    /** @return la somma dei picchi di uso dei pool di memoria heap */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean m : ManagementFactory.getMemoryPoolMXBeans())
+            if (m.getType() == MemoryType.HEAP) peak += m.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean m : ManagementFactory.getMemoryPoolMXBeans())
+            m.resetPeakUsage();
+    }
+
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static final com.sun.management.ThreadMXBean TM =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    private static final long PERIOD_MS = 5;
+
+    private final int warmup, n;
+    private final List<Result> results = new ArrayList<>();
+    private Runnable beforeEach = null;
+}
@@ -0,0 +1,228 @@
+package mp.util;
+
+import java.util.*;
+import java.util.function.ObjIntConsumer;
+
+/** Una mappa da stringhe a conteggi interi, specializzata per contare le
+ * occorrenze. È implementata con una tabella hash a indirizzamento aperto (con
+ * scansione lineare) che mantiene le chiavi in un array di {@link String} e i
+ * conteggi in un array di {@code int}, così un incremento non crea oggetti
+ * {@link Integer} e calcola la posizione della chiave una sola volta. Implementa
+ * anche l'interfaccia {@link Map} per poter essere usata al posto di una
+ * {@link HashMap}, ma i metodi di quest'ultima ({@link CountMap#get},
+ * {@link CountMap#put}, ...) usano valori boxed e sono meno efficienti dei
+ * metodi specifici {@link CountMap#increment}, {@link CountMap#add} e
+ * {@link CountMap#count}. Le chiavi null non sono ammesse. */
+public class CountMap extends AbstractMap<String,Integer> {
+    /** Crea una mappa vuota. */
+    public CountMap() { this(16); }
+
+    /** Crea una mappa vuota che può contenere il numero di chiavi specificato
+     * senza dover essere ridimensionata.
+     * @param expectedSize  numero atteso di chiavi */
+    public CountMap(int expectedSize) {
+        int cap = 16;
+        while (cap*LOAD < expectedSize) cap *= 2;
+        keys = new String[cap];
+        vals = new int[cap];
+    }
+
+    /** Incrementa di uno il conteggio della chiave data. Se la chiave non è
+     * presente, è aggiunta con conteggio 1.
+     * @param key  una chiave
+     * @return il nuovo conteggio della chiave */
+    public int increment(String key) { return add(key, 1); }
+
+    /** Aggiunge n al conteggio della chiave data. Se la chiave non è presente,
+     * è aggiunta con conteggio n.
+     * @param key  una chiave
+     * @param n  il valore da aggiungere
+     * @return il nuovo conteggio della chiave */
+    public int add(String key, int n) {
+        int i = slot(key);
+        if (keys[i] == null) {
+            keys[i] = key;
+            vals[i] = n;
+            if (++size > keys.length*LOAD) resize();
+            return n;
+        }
+        return vals[i] += n;
+    }
+
+    /** Aggiunge a questa mappa tutti i conteggi della mappa data.
+     * @param m  una mappa di conteggi */
+    public void addAll(CountMap m) {
+        m.forEachCount(this::add);
+    }
+
+    /** Ritorna il conteggio della chiave data o 0 se la chiave non è presente.
+     * @param key  una chiave
+     * @return il conteggio della chiave */
+    public int count(Object key) {
+        if (!(key instanceof String)) return 0;
+        int i = slot((String)key);
+        return keys[i] != null ? vals[i] : 0;
+    }
+
+    /** Esegue l'azione data su ogni chiave e il suo conteggio, senza creare
+     * oggetti {@link Integer}.
+     * @param action  l'azione da eseguire */
+    public void forEachCount(ObjIntConsumer<String> action) {
+        for (int i = 0 ; i < keys.length ; i++)
+            if (keys[i] != null) action.accept(keys[i], vals[i]);
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && keys[slot((String)key)] != null;
+    }
+
+    @Override
+    public Integer get(Object key) {
+        if (!(key instanceof String)) return null;
+        int i = slot((String)key);
+        return keys[i] != null ? vals[i] : null;
+    }
+
+    @Override
+    public Integer put(String key, Integer value) {
+        int i = slot(key);
+        Integer old = keys[i] != null ? vals[i] : null;
+        if (old == null) {
+            add(key, value);
+        } else vals[i] = value;
+        return old;
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        if (!(key instanceof String)) return null;
+        int i = slot((String)key);
+        if (keys[i] == null) return null;
+        Integer old = vals[i];
+        delete(i);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, null);
+        Arrays.fill(vals, 0);
+        size = 0;
+    }
+
+    /** L'insieme delle coppie ritornato, come quelli di {@link CountMap#keySet}
+     * e {@link CountMap#values}, supporta la rimozione tramite iteratore. La
+     * visita della tabella parte subito dopo una posizione libera, così nessun
+     * gruppo di chiavi contigue la attraversa e una rimozione può spostare
+     * solamente chiavi non ancora visitate, eventualmente nella posizione
+     * appena liberata che è quindi visitata di nuovo.
+     * @return l'insieme delle coppie (chiave, conteggio) */
+    @Override
+    public Set<Entry<String,Integer>> entrySet() {
+        return new AbstractSet<Entry<String,Integer>>() {
+            @Override
+            public Iterator<Entry<String,Integer>> iterator() {
+                return new Iterator<Entry<String,Integer>>() {
+                    @Override
+                    public boolean hasNext() {
+                        while (n < keys.length && keys[pos(n)] == null) n++;
+                        return n < keys.length;
+                    }
+
+                    @Override
+                    public Entry<String,Integer> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        last = pos(n++);
+                        return new SimpleEntry<String,Integer>(keys[last], vals[last]) {
+                            @Override
+                            public Integer setValue(Integer value) {
+                                int i = slot(getKey());  // Può essere stata spostata
+                                if (keys[i] != null) vals[i] = value;
+                                return super.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last < 0) throw new IllegalStateException();
+                        delete(last);
+                        if (keys[last] != null) n--;  // Vi è stata spostata una
+                        last = -1;                     // chiave non visitata
+                    }
+
+                    private int pos(int k) { return (start + k) & (keys.length - 1); }
+
+                    private final int start = free() + 1;  // Dopo una posizione libera
+                    private int n = 0, last = -1;
+                };
+            }
+
+            @Override
+            public int size() { return size; }
+        };
+    }
+
+    /** Ritorna la posizione della chiave nella tabella o, se la chiave non è
+     * presente, la posizione libera in cui andrebbe inserita. */
+    private int slot(String key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != null && !keys[i].equals(key))
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /** Ritorna la prima posizione libera della tabella, che esiste sempre
+     * perché il fattore di carico è minore di 1. */
+    private int free() {
+        int i = 0;
+        while (keys[i] != null) i++;
+        return i;
+    }
+
+    /** Rimuove la chiave nella posizione data, spostando indietro le chiavi
+     * che altrimenti non sarebbero più raggiungibili. */
+    private void delete(int i) {
+        int mask = keys.length - 1;
+        for (int j = (i + 1) & mask ; keys[j] != null ; j = (j + 1) & mask) {
+            int h = hash(keys[j]) & mask;  // Sposta indietro le chiavi che
+            if (((j - h) & mask) >= ((j - i) & mask)) {  // non sarebbero più
+                keys[i] = keys[j];                       // raggiungibili
+                vals[i] = vals[j];
+                i = j;
+            }
+        }
+        keys[i] = null;
+        vals[i] = 0;
+        size--;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode()*0x9E3779B9;  // Mescola i bit bassi con quelli alti
+        return h ^ (h >>> 16);
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        int[] oldVals = vals;
+        keys = new String[2*oldKeys.length];
+        vals = new int[keys.length];
+        for (int i = 0 ; i < oldKeys.length ; i++)
+            if (oldKeys[i] != null) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                vals[j] = oldVals[i];
+            }
+    }
+
+    private static final float LOAD = 0.5f;   // Massimo fattore di carico
+
+    private String[] keys;   // Chiavi, null per le posizioni libere
+    private int[] vals;      // Conteggi
+    private int size = 0;    // Numero di chiavi
+}
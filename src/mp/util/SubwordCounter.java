@@ -0,0 +1,167 @@
+package mp.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/** Conta le occorrenze delle sotto-stringhe di una data lunghezza composte
+ * solamente da lettere (secondo {@link Character#isLetter(char)}), come
+ * {@link mp.util.Utils#subwordsCount(String, int)}, ma senza creare una
+ * stringa per ogni posizione. I caratteri sono letti uno alla volta tenendo la
+ * lunghezza della sequenza di lettere corrente, così le finestre che
+ * contengono una non-lettera sono scartate in tempo costante, e un hash
+ * polinomiale della finestra è aggiornato in tempo costante ad ogni carattere
+ * (rolling hash). Gli ultimi caratteri letti sono mantenuti in un buffer
+ * circolare della lunghezza delle finestre: una stringa è creata solamente la
+ * prima volta che una sotto-stringa è incontrata e i caratteri sono confrontati
+ * solo quando gli hash coincidono. La memoria usata dipende dal numero di
+ * sotto-stringhe distinte e non dalla lunghezza del testo, quindi il testo può
+ * essere letto in streaming da un {@link Reader}. Un oggetto
+ * {@link SubwordCounter} non è thread-safe. */
+public class SubwordCounter {
+    /** Ritorna una mappa che ad ogni sotto-stringa di lettere della lunghezza
+     * specificata associa il numero di occorrenze nel file dato, che è letto in
+     * streaming.
+     * @param path  il percorso del file
+     * @param charset  il charset per decodificare i caratteri
+     * @param len  lunghezza delle sotto-stringhe
+     * @return  mappa che conta le occorrenze delle sotto-stringhe
+     * @throws IOException se si verifica un errore leggendo il file */
+    public static CountMap count(Path path, String charset, int len)
+            throws IOException {
+        SubwordCounter sc = new SubwordCounter(len);
+        try (Reader r = Files.newBufferedReader(path, Charset.forName(charset))) {
+            sc.add(r);
+        }
+        return sc.toCountMap();
+    }
+
+    /** Crea un contatore di sotto-stringhe della lunghezza data.
+     * @param len  lunghezza delle sotto-stringhe
+     * @throws IllegalArgumentException se len non è positivo */
+    public SubwordCounter(int len) {
+        if (len <= 0)
+            throw new IllegalArgumentException("Lunghezza non positiva: "+len);
+        this.len = len;
+        ring = new char[len];
+        long p = 1;
+        for (int i = 0 ; i < len ; i++) p *= BASE;
+        basePow = p;
+    }
+
+    /** Conta le sotto-stringhe della sequenza di caratteri data. Le sotto-stringhe
+     * non continuano tra due chiamate successive.
+     * @param s  una sequenza di caratteri */
+    public void add(CharSequence s) {
+        for (int i = 0, n = s.length() ; i < n ; i++) feed(s.charAt(i));
+        feed(' ');                      // Termina l'ultima sequenza di lettere
+    }
+
+    /** Conta le sotto-stringhe di tutti i caratteri letti dal flusso, fino alla
+     * sua fine. Le sotto-stringhe non continuano tra due chiamate successive.
+     * @param r  un flusso di caratteri
+     * @throws IOException se si verifica un errore leggendo dal flusso */
+    public void add(Reader r) throws IOException {
+        char[] buf = new char[1 << 14];
+        for (int n = r.read(buf) ; n >= 0 ; n = r.read(buf))
+            for (int i = 0 ; i < n ; i++) feed(buf[i]);
+        feed(' ');
+    }
+
+    /** @return il numero di sotto-stringhe distinte contate */
+    public int size() { return size; }
+
+    /** @return l'insieme delle sotto-stringhe distinte contate */
+    public Set<String> keys() {
+        Set<String> set = new HashSet<>();
+        for (String k : keys)
+            if (k != null) set.add(k);
+        return set;
+    }
+
+    /** @return una mappa che ad ogni sotto-stringa associa il suo conteggio */
+    public CountMap toCountMap() {
+        CountMap map = new CountMap(size);
+        for (int i = 0 ; i < keys.length ; i++)
+            if (keys[i] != null) map.add(keys[i], counts[i]);
+        return map;
+    }
+
+    /** Aggiorna lo stato con il prossimo carattere del testo. */
+    private void feed(char c) {
+        if (!Character.isLetter(c)) {   // Nessuna finestra contiene c
+            run = 0;
+            hash = 0;
+            return;
+        }
+        char out = ring[pos];           // Carattere che esce dalla finestra
+        ring[pos] = c;
+        pos = pos + 1 == len ? 0 : pos + 1;
+        hash = hash*BASE + c;
+        if (++run > len) hash -= out*basePow;
+        if (run >= len) hit();
+    }
+
+    /** Conta la finestra corrente, che è nel buffer circolare a partire da pos. */
+    private void hit() {
+        int mask = keys.length - 1;
+        long m = hash*0x9E3779B97F4A7C15L;
+        int i = (int)(m ^ (m >>> 32)) & mask;
+        while (keys[i] != null) {
+            if (hashes[i] == hash && sameAsWindow(keys[i])) {
+                counts[i]++;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        char[] w = new char[len];       // Nuova sotto-stringa
+        System.arraycopy(ring, pos, w, 0, len - pos);
+        System.arraycopy(ring, 0, w, len - pos, pos);
+        keys[i] = new String(w);
+        hashes[i] = hash;
+        counts[i] = 1;
+        if (++size > keys.length/2) resize();
+    }
+
+    private boolean sameAsWindow(String k) {
+        for (int j = 0, p = pos ; j < len ; j++, p = p + 1 == len ? 0 : p + 1)
+            if (k.charAt(j) != ring[p]) return false;
+        return true;
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        long[] oldHashes = hashes;
+        int[] oldCounts = counts;
+        keys = new String[2*oldKeys.length];
+        hashes = new long[keys.length];
+        counts = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int j = 0 ; j < oldKeys.length ; j++) {
+            if (oldKeys[j] == null) continue;
+            long m = oldHashes[j]*0x9E3779B97F4A7C15L;
+            int i = (int)(m ^ (m >>> 32)) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            hashes[i] = oldHashes[j];
+            counts[i] = oldCounts[j];
+        }
+    }
+
+    private static final long BASE = 0x100000001B3L;   // Base del rolling hash
+
+    private final int len;
+    private final long basePow;      // BASE^len (modulo 2^64)
+    private final char[] ring;       // Gli ultimi len caratteri letti
+    private int pos = 0;             // Posizione del carattere più vecchio
+    private int run = 0;             // Lunghezza della sequenza di lettere
+    private long hash = 0;           // Hash degli ultimi min(run, len) caratteri
+
+    private String[] keys = new String[64];   // Sotto-stringhe, null se libero
+    private long[] hashes = new long[64];     // Loro hash
+    private int[] counts = new int[64];       // Conteggi
+    private int size = 0;                     // Numero sotto-stringhe distinte
+}
@@ -2,7 +2,11 @@ package mp.util;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.System.out;   // Importa il campo statico out di System
 
@@ -141,36 +145,28 @@ public class Utils {
     }
 
     /** Ritorna l'insieme delle sottostringhe di una data stringa che hanno una
-     * data lunghezza e sono composte solamente da lettere.
+     * data lunghezza e sono composte solamente da lettere. Usa un
+     * {@link mp.util.SubwordCounter} per non creare una stringa per ogni
+     * posizione.
      * @param s  una stringa
-     * @param len  lunghezza delle sottostringhe
+     * @param len  lunghezza delle sottostringhe, positiva
      * @return l'insieme delle sottostringhe */
     public static Set<String> subwords(String s, int len) {
-        Set<String> subSet = new HashSet<>();
-        for (int i = 0 ; i <= s.length() - len ; i++) {
-            String sub = s.substring(i, i + len);
-            if (isWord(sub)) subSet.add(sub);
-        }
-        return subSet;
+        SubwordCounter sc = new SubwordCounter(len);
+        sc.add(s);
+        return sc.keys();
     }
 
     /** Ritorna una mappa che ad ogni sotto-stringa della stringa data della
-     * lunghezza specificata associa il numero di occorrenze.
+     * lunghezza specificata, composta solamente da lettere, associa il numero
+     * di occorrenze. Usa un {@link mp.util.SubwordCounter}.
      * @param s  una stringa
-     * @param len  lunghezza delle sottostringhe
+     * @param len  lunghezza delle sottostringhe, positiva
      * @return  mappa che conta le occorrenze delle sotto-stringhe */
-    public static Map<String,Integer> subwordsCount(String s, int len) {
-        Map<String, Integer> count = new HashMap<>();
-        for (int i = 0 ; i <= s.length() - len ; i++) {
-            String sub = s.substring(i, i + len);
-            if (isWord(sub)) {
-                if (count.containsKey(sub))
-                    count.put(sub, count.get(sub)+1);
-                else
-                    count.put(sub, 1);
-            }
-        }
-        return count;
+    public static CountMap subwordsCount(String s, int len) {
+        SubwordCounter sc = new SubwordCounter(len);
+        sc.add(s);
+        return sc.toCountMap();
     }
 
     /** Ritorna una stima della memoria totale (heap e non-heap) attualmente usata.
@@ -212,6 +208,43 @@ public class Utils {
         return indices;
     }
 
+    /** @return true se la JVM supporta i thread virtuali (Java 21 o
+     * successivo) */
+    public static boolean virtualThreads() { return NEW_VIRTUAL != null; }
+
+    /** Ritorna un executor che esegue ogni task in un nuovo thread virtuale,
+     * come {@code Executors.newVirtualThreadPerTaskExecutor()}. Il metodo è
+     * invocato per riflessione così che il codice compili anche con Java 17.
+     * @return un executor con un thread virtuale per task
+     * @throws UnsupportedOperationException se la JVM non supporta i thread
+     * virtuali */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (NEW_VIRTUAL == null)
+            throw new UnsupportedOperationException("Thread virtuali non disponibili (serve Java 21)");
+        try {
+            return (ExecutorService)NEW_VIRTUAL.invoke(null);
+        } catch (ReflectiveOperationException ex) { throw new IllegalStateException(ex); }
+    }
+
+    /** Chiude l'executor e aspetta che tutti i task siano terminati, come
+     * {@code ExecutorService.close()} di Java 19. Se il thread è interrotto
+     * mentre aspetta, cancella i task in esecuzione, continua ad aspettare e
+     * infine ripristina lo stato di interruzione.
+     * @param exec  un executor */
+    public static void close(ExecutorService exec) {
+        exec.shutdown();
+        boolean interrupted = false;
+        while (!exec.isTerminated()) {
+            try {
+                exec.awaitTermination(1, TimeUnit.DAYS);
+            } catch (InterruptedException ex) {
+                if (!interrupted) exec.shutdownNow();
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
 
 
     public static void main(String[] args) {
@@ -232,6 +265,14 @@ public class Utils {
     }
 
     private static final Random RND = new Random();
+    private static final Method NEW_VIRTUAL = newVirtualMethod();
+
+    /** Ritorna Executors.newVirtualThreadPerTaskExecutor o null se non esiste */
+    private static Method newVirtualMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) { return null; }
+    }
 
     private static boolean timeLEQ2(int h1, int m1, int s1, int h2, int m2, int s2) {
         return h1 < h2 || h1 == h2 && m1 < m2 || h1 == h2 && m1 == m2 && s1 <= s2;